@@ -1,7 +1,9 @@
 package com.reeple.engine.controllers
 
+import com.reeple.engine.renderer.core.AdmissionRejectedException
 import com.reeple.engine.renderer.core.FileManager
 import com.reeple.engine.renderer.core.RenderContext
+import com.reeple.engine.renderer.core.RenderCostEstimator
 import com.reeple.engine.renderer.core.TaskManager
 import com.reeple.engine.renderer.utils.bootstrapApplication
 import kotlinx.coroutines.CoroutineScope
@@ -55,6 +57,11 @@ class MainControllers {
 
     }
 
+    @GetMapping("/tasks")
+    fun getTasksController(): ResponseEntity<Any> {
+        return ResponseEntity(TaskManager.status(), HttpStatus.OK)
+    }
+
     @PutMapping("/cancel/{id}")
     @CrossOrigin
     fun cancelController(@PathVariable id: String): ResponseEntity<Any> {
@@ -70,11 +77,25 @@ class MainControllers {
     fun createNewRenderTask(): ResponseEntity<Any> {
 
         if (request !== null) {
+            var reserved: String? = null
             try {
                 bootstrapApplication(fontResources);
-                TaskManager.new(RenderContext(request.parts));
-
+                val parts = request.parts
+                RenderContext.readModel(parts)?.let { model ->
+                    model.id?.let { id ->
+                        TaskManager.reserve(id, RenderCostEstimator.estimate(model, parts))
+                        reserved = id
+                    }
+                }
+                TaskManager.new(RenderContext(parts));
+
+            } catch (e: AdmissionRejectedException) {
+                val headers = HttpHeaders()
+                headers.set(HttpHeaders.RETRY_AFTER, e.retryAfter.toString())
+                val status = if (e.reason == AdmissionRejectedException.Reason.CPU) HttpStatus.TOO_MANY_REQUESTS else HttpStatus.SERVICE_UNAVAILABLE
+                return ResponseEntity("Failed to initialize Render: ${e.message}", headers, status)
             } catch (e: Exception) {
+                reserved?.let { TaskManager.release(it) }
                 return ResponseEntity("Failed to initialize Render: ${e.message}", HttpStatus.INTERNAL_SERVER_ERROR)
             }
             return ResponseEntity("Render task has been successfully initialized", HttpStatus.OK)
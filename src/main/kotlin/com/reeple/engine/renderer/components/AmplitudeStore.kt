@@ -0,0 +1,62 @@
+package com.reeple.engine.renderer.components
+
+import com.reeple.engine.renderer.types.AmplitudeData
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.FloatBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * Frame-major table of band amplitudes, one row of [bands] floats per frame, held in a single primitive
+ * buffer on heap, off heap or mapped from a file. Rows are read and written by absolute index, so
+ * readers on other threads never touch the buffer position.
+ */
+class AmplitudeStore(override val size: Int, override val bands: Int, private val buffer: FloatBuffer) : AmplitudeData {
+
+    override fun get(currentPoint: Int, band: Int): Float {
+        return buffer.get(currentPoint * bands + band)
+    }
+
+    fun put(currentPoint: Int, values: FloatArray) {
+        val row = currentPoint * bands
+        for (band in 0 until bands) buffer.put(row + band, values[band])
+    }
+
+    fun writeTo(file: File) {
+        val bytes = ByteBuffer.allocate(size * bands * 4).order(ByteOrder.nativeOrder())
+        bytes.asFloatBuffer().put(buffer.duplicate().also { it.clear() })
+        RandomAccessFile(file, "rw").use {
+            it.setLength(0)
+            while (bytes.hasRemaining()) it.channel.write(bytes)
+        }
+    }
+
+    companion object {
+        fun heap(size: Int, bands: Int): AmplitudeStore {
+            return AmplitudeStore(size, bands, FloatBuffer.allocate(size * bands))
+        }
+
+        fun direct(size: Int, bands: Int): AmplitudeStore {
+            val bytes = ByteBuffer.allocateDirect(size * bands * 4).order(ByteOrder.nativeOrder())
+            return AmplitudeStore(size, bands, bytes.asFloatBuffer())
+        }
+
+        // the mapping stays valid after the channel is closed
+        fun mapped(file: File, size: Int, bands: Int): AmplitudeStore {
+            RandomAccessFile(file, "rw").use {
+                val bytes = it.channel.map(FileChannel.MapMode.READ_WRITE, 0, size * bands * 4L)
+                return AmplitudeStore(size, bands, bytes.order(ByteOrder.nativeOrder()).asFloatBuffer())
+            }
+        }
+
+        // maps a table written by [writeTo] read-only, the row count follows from the file size
+        fun load(file: File, bands: Int): AmplitudeStore {
+            RandomAccessFile(file, "r").use {
+                val bytes = it.channel.map(FileChannel.MapMode.READ_ONLY, 0, it.length())
+                return AmplitudeStore((it.length() / (bands * 4)).toInt(), bands, bytes.order(ByteOrder.nativeOrder()).asFloatBuffer())
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.reeple.engine.renderer.components
+
+import com.reeple.engine.renderer.core.EngineConfig
+import com.reeple.engine.renderer.core.FileManager
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Content addressed cache of analysis tables. Entries are keyed by a hash of the uploaded audio bytes and
+ * every parameter that shapes the analysis, and evicted least recently used first once the cache grows
+ * past [EngineConfig.analysisCacheMb].
+ */
+sealed class AnalysisCache {
+
+    class Entry(val freq: AmplitudeStore, val sig: AmplitudeStore)
+
+    companion object {
+        const val FREQ_FILE = "freq.bin"
+        const val SIG_FILE = "sig.bin"
+
+        // bump when the analysis itself changes so stale tables are never read back
+        private const val VERSION = 3
+
+        private val enabled = EngineConfig.analysisCacheMb > 0
+        private val limit = EngineConfig.analysisCacheMb * 1024 * 1024
+        private val lock = Any()
+
+        fun key(audioPath: String, fps: Double): String? {
+            if (!enabled) return null
+            val digest = MessageDigest.getInstance("SHA-256")
+            FileManager.getResource(audioPath).inputStream().use { input ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val read = input.read(buffer)
+                    if (read < 0) break
+                    digest.update(buffer, 0, read)
+                }
+            }
+            val parameters = "v=$VERSION;fps=$fps;rate=${AudioConverter.SAMPLE_RATE};fft=${AudioAnalyzer.FFT_SIZE};window=${AudioAnalyzer.WINDOW};" +
+                    "bands=${AudioAnalyzer.BAND_EDGES.joinToString(",")};gains=${AudioAnalyzer.BAND_GAINS.joinToString(",")}"
+            digest.update(parameters.toByteArray())
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+
+        fun lookup(key: String?): Entry? {
+            if (key == null) return null
+            synchronized(lock) {
+                val directory = File(root(), key)
+                val freq = File(directory, FREQ_FILE)
+                val sig = File(directory, SIG_FILE)
+                if (!freq.isFile || !sig.isFile) return null
+
+                return try {
+                    val entry = Entry(
+                        AmplitudeStore.load(freq, AudioAnalyzer.BANDS),
+                        AmplitudeStore.load(sig, AudioAnalyzer.BANDS)
+                    )
+                    directory.setLastModified(System.currentTimeMillis())
+                    println("Analysis cache hit for $key")
+                    entry
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                    null
+                }
+            }
+        }
+
+        // lets [writeTables] fill a staging directory, then publishes it as the entry in one rename
+        fun store(key: String?, writeTables: (File) -> Unit) {
+            if (key == null) return
+            val root = root()
+            val staging = File(root, "$key.${Thread.currentThread().id}.tmp")
+            try {
+                staging.mkdirs()
+                writeTables(staging)
+
+                synchronized(lock) {
+                    val directory = File(root, key)
+                    if (directory.exists() || !staging.renameTo(directory)) staging.deleteRecursively()
+                    evict()
+                }
+            } catch (e: Exception) {
+                staging.deleteRecursively()
+                println("Failed to cache analysis for $key: ${e.message}")
+            }
+        }
+
+        // drops least recently used entries until the cache fits its limit
+        private fun evict() {
+            val entries = root().listFiles { file -> file.isDirectory && !file.name.endsWith(".tmp") } ?: return
+            var total = entries.sumOf { size(it) }
+            for (entry in entries.sortedBy { it.lastModified() }) {
+                if (total <= limit) break
+                total -= size(entry)
+                entry.deleteRecursively()
+                println("Evicted analysis cache entry ${entry.name}")
+            }
+        }
+
+        private fun size(directory: File): Long {
+            return directory.listFiles()?.sumOf { it.length() } ?: 0L
+        }
+
+        private fun root(): File {
+            return FileManager.getCacheDirectory("analysis")
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.reeple.engine.renderer.components
+
+import com.reeple.engine.renderer.core.EngineConfig
+import com.reeple.engine.renderer.core.FileManager
+import com.reeple.engine.renderer.core.RenderContext
+import com.reeple.engine.renderer.types.AmplitudeData
+import com.reeple.engine.renderer.utils.arraySampler
+import com.reeple.engine.renderer.utils.external.analysis.FFT
+import com.xuggle.xuggler.IAudioSamples
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import kotlin.math.PI
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.max
+import kotlin.math.roundToInt
+import kotlin.math.roundToLong
+
+/**
+ * Decodes and analyses the uploaded track on its own thread while frames are rendered. Decoded audio is
+ * cut into chunks of frames whose spectra are computed on a shared fork-join pool, the smoothing that
+ * carries state from frame to frame then runs over finished chunks in order, so results match a serial
+ * run exactly. Band amplitudes are written per output frame into primitive [AmplitudeStore] tables. With a
+ * [cached] entry the tables are read from the cache and the track is not decoded at all. [onAnalysed] runs
+ * once every frame has been analysed or read, on the analysis thread when the track is decoded.
+ */
+class AudioAnalyzer(
+    context: RenderContext,
+    audioUrl: String,
+    private val fps: Double,
+    private val cached: AnalysisCache.Entry? = null,
+    private val onAnalysed: () -> Unit = {}
+) {
+
+    private val maxValue = 1.0f / java.lang.Short.MAX_VALUE
+    private val size = FFT_SIZE
+    private val sampleRate = AudioConverter.SAMPLE_RATE.toFloat()
+    private val samplesPerFrame = sampleRate / fps
+
+    // mono samples not yet handed to a chunk, buffer[0] is sample number bufferStart of the track
+    private var buffer = FloatArray(size)
+    private var buffered = 0
+    private var bufferStart = 0L
+    private var decodedSamples = 0L
+    private var pcm = ShortArray(0)
+
+    // chunks being analysed on the pool, completed in frame order
+    private val chunks = ArrayDeque<Future<Chunk>>()
+    private var chunked = 0
+
+    private val freqRow = FloatArray(BANDS)
+    private var smooth = FloatArray(BANDS) { _ -> 1f }
+
+    private val converter = AudioConverter(audioUrl)
+    private val totalPoints: Int
+
+    private val freqStore: AmplitudeStore
+    private val sigStore: AmplitudeStore
+    private val fromCache: Boolean
+
+    private val lock = Object()
+    @Volatile
+    private var produced = 0
+    private var stopped = false
+    private var failure: Throwable? = null
+
+    private val decoder = Thread({ run() }, "audio-analysis")
+
+    val freqAmpData: AmplitudeData
+    val sigAmpData: AmplitudeData
+
+    init {
+        context.trackLength = converter.duration
+        totalPoints = (fps * context.trackLength!!).roundToInt()
+        if (cached != null && cached.freq.size == totalPoints) {
+            freqStore = cached.freq
+            sigStore = cached.sig
+        } else {
+            if (cached != null) println("Cached analysis does not match track length, analysing again")
+            freqStore = createStore(context.id, "freq")
+            sigStore = createStore(context.id, "sig")
+        }
+        fromCache = freqStore === cached?.freq
+        freqAmpData = AmplitudeView(freqStore)
+        sigAmpData = AmplitudeView(sigStore)
+        decoder.isDaemon = true
+    }
+
+    fun start() {
+        if (fromCache) {
+            converter.close()
+            onAnalysed()
+        } else {
+            decoder.start()
+        }
+    }
+
+    // true once every frame was analysed from the track rather than read from the cache
+    val isFreshlyAnalysed: Boolean
+        get() = !fromCache && produced == totalPoints && synchronized(lock) { failure == null }
+
+    // writes the finished tables into a cache entry directory
+    fun saveTo(directory: File) {
+        freqStore.writeTo(File(directory, AnalysisCache.FREQ_FILE))
+        sigStore.writeTo(File(directory, AnalysisCache.SIG_FILE))
+    }
+
+    // waits until every frame has been analysed
+    fun finish() {
+        if (decoder.isAlive) decoder.join()
+        synchronized(lock) {
+            failure?.let { throw Exception("Failed to decode audio: ${it.message}", it) }
+        }
+    }
+
+    fun abort() {
+        synchronized(lock) {
+            stopped = true
+            lock.notifyAll()
+        }
+        if (decoder.isAlive) decoder.join()
+    }
+
+    private fun run() {
+        try {
+            decode()
+            // decode returns early once aborted
+            if (produced == totalPoints) {
+                println("Audio source analysed")
+                onAnalysed()
+            }
+        } catch (e: Throwable) {
+            synchronized(lock) {
+                failure = e
+                lock.notifyAll()
+            }
+        } finally {
+            converter.close()
+        }
+    }
+
+    private fun decode() {
+        try {
+            while (true) {
+                val samples = converter.read() ?: break
+                if (!consume(samples)) return
+            }
+
+            // silence pads the tail when the container duration overshoots the decoded audio
+            if (totalPoints > 0) {
+                val end = windowEnd(totalPoints - 1)
+                if (decodedSamples < end) {
+                    val count = (end - decodedSamples).toInt()
+                    reserve(count)
+                    buffer.fill(0f, buffered, buffered + count)
+                    buffered += count
+                    decodedSamples += count
+                }
+            }
+            submitChunks()
+            while (chunks.isNotEmpty()) if (!completeChunk()) return
+        } finally {
+            chunks.forEach { it.cancel(true) }
+        }
+    }
+
+    private fun consume(samples: IAudioSamples): Boolean {
+        val count = samples.numSamples.toInt()
+        if (pcm.size < count * AudioConverter.CHANNELS) pcm = ShortArray(count * AudioConverter.CHANNELS)
+        samples.get(0, pcm, 0, count * AudioConverter.CHANNELS)
+        reserve(count)
+        for (index in 0 until count) {
+            val amp1 = pcm[index * 2] * maxValue
+            val amp2 = pcm[index * 2 + 1] * maxValue
+            buffer[buffered + index] = (amp1 + amp2) / 2
+        }
+        buffered += count
+        decodedSamples += count
+        submitChunks()
+
+        // publish finished chunks as they come in, and wait on the oldest once enough are in flight
+        while (chunks.isNotEmpty() && (chunks.first().isDone || chunks.size > pool.parallelism * 2)) {
+            if (!completeChunk()) return false
+        }
+        return true
+    }
+
+    private fun reserve(count: Int) {
+        if (buffered + count > buffer.size) buffer = buffer.copyOf(max(buffer.size * 2, buffered + count))
+    }
+
+    // hands every run of frames whose windows are fully decoded to the pool
+    private fun submitChunks() {
+        while (chunked < totalPoints) {
+            val last = minOf(chunked + CHUNK_FRAMES, totalPoints) - 1
+            if (decodedSamples < windowEnd(last)) return
+
+            val first = chunked
+            val from = max(windowEnd(first) - size, 0L)
+            val samples = buffer.copyOfRange((from - bufferStart).toInt(), (windowEnd(last) - bufferStart).toInt())
+            chunks.addLast(pool.submit(Callable { analyse(first, last - first + 1, samples, from) }))
+            chunked = last + 1
+
+            // keep only what the next chunk's first window still needs
+            if (chunked < totalPoints) {
+                val keep = (max(windowEnd(chunked) - size, 0L) - bufferStart).toInt()
+                System.arraycopy(buffer, keep, buffer, 0, buffered - keep)
+                buffered -= keep
+                bufferStart += keep
+            }
+        }
+    }
+
+    // smooths the oldest chunk in frame order and publishes it, the only sequential step of the analysis
+    private fun completeChunk(): Boolean {
+        val chunk = try {
+            chunks.removeFirst().get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+
+        for (frame in 0 until chunk.count) {
+            for (i in 0 until BANDS) {
+                smooth[i] = 0.35f * chunk.freq[frame * BANDS + i] + 0.65f * smooth[i]
+                if (smooth[i] == Float.NEGATIVE_INFINITY) {
+                    smooth[i] = 0f
+                }
+
+                if (smooth[i] < 0.0f) {
+                    smooth[i] = 0f
+                }
+            }
+
+            smooth.copyInto(freqRow)
+
+            for (i in 0 until BANDS) {
+                smooth[i] = 0.35f * chunk.sig[frame * BANDS + i] + 0.65f * smooth[i]
+                if (smooth[i] == Float.NEGATIVE_INFINITY) {
+                    smooth[i] = 0f
+                }
+
+                if (smooth[i] < 0.0f) {
+                    smooth[i] = 0f
+                }
+            }
+            if (!publish()) return false
+        }
+        return true
+    }
+
+    // a frame's window is centred on the middle of the frame, so the hop between windows is one frame
+    private fun windowEnd(currentPoint: Int): Long {
+        return ((currentPoint + 0.5) * samplesPerFrame).roundToLong() + size / 2
+    }
+
+    // raw band energies and signal amplitudes of [count] frames, [samples] starts at track sample [from]
+    private fun analyse(first: Int, count: Int, samples: FloatArray, from: Long): Chunk {
+        val kernel = kernels.get()
+        val chunk = Chunk(count)
+        for (frame in 0 until count) {
+            val end = windowEnd(first + frame)
+            val start = end - size
+            val frameSamples = kernel.frameSamples
+
+            // windows reaching before the start of the track are zero padded
+            val padding = if (start < from) (from - start).toInt() else 0
+            frameSamples.fill(0f, 0, padding)
+            System.arraycopy(samples, (start + padding - from).toInt(), frameSamples, padding, size - padding)
+
+            val array2 = arraySampler(frameSamples, BANDS)
+            for (i in array2.indices) chunk.sig[frame * BANDS + i] = abs(array2[i] * 110)
+
+            for (index in 0 until size) frameSamples[index] *= WINDOW_FUNCTION[index]
+            kernel.fft.forward(frameSamples)
+            kernel.bandEnergy.compute(kernel.fft.spectrum).copyInto(chunk.freq, frame * BANDS)
+        }
+        return chunk
+    }
+
+    // writes the next frame, returns false once the analysis was aborted
+    private fun publish(): Boolean {
+        synchronized(lock) {
+            if (stopped) return false
+            freqStore.put(produced, freqRow)
+            sigStore.put(produced, smooth)
+            produced++
+            lock.notifyAll()
+            return true
+        }
+    }
+
+    // blocks until the decoder has written [currentPoint], the volatile read keeps the common case lock free
+    private fun awaitFrame(currentPoint: Int) {
+        if (fromCache || currentPoint < produced) return
+        synchronized(lock) {
+            while (currentPoint >= produced) {
+                failure?.let { throw Exception("Failed to decode audio: ${it.message}", it) }
+                if (stopped) throw IllegalStateException("audio analysis was stopped before frame $currentPoint")
+                lock.wait()
+            }
+        }
+    }
+
+    private fun createStore(id: String, name: String): AmplitudeStore {
+        return when (EngineConfig.analysisStore) {
+            "heap" -> AmplitudeStore.heap(totalPoints, BANDS)
+            "mapped" -> AmplitudeStore.mapped(FileManager.getAnalysisFile(id, name), totalPoints, BANDS)
+            else -> AmplitudeStore.direct(totalPoints, BANDS)
+        }
+    }
+
+    private class Chunk(val count: Int) {
+        val freq = FloatArray(count * BANDS)
+        val sig = FloatArray(count * BANDS)
+    }
+
+    // per worker transform state
+    private class Kernel {
+        val fft = FFT(FFT_SIZE, AudioConverter.SAMPLE_RATE.toFloat())
+        val bandEnergy = BandEnergy(fft, BAND_EDGES, BAND_GAINS)
+        val frameSamples = FloatArray(FFT_SIZE)
+    }
+
+    private inner class AmplitudeView(private val store: AmplitudeStore) : AmplitudeData {
+        override val size: Int
+            get() = store.size
+        override val bands: Int
+            get() = store.bands
+
+        override fun get(currentPoint: Int, band: Int): Float {
+            awaitFrame(currentPoint)
+            return store[currentPoint, band]
+        }
+    }
+
+    companion object {
+        const val BANDS = 6
+        const val FFT_SIZE = 1024
+        const val WINDOW = "hamming"
+
+        // band edges in Hz, the upper three bands are scaled up to match the lower ones visually
+        @JvmField
+        val BAND_EDGES = floatArrayOf(20f, 80f, 200f, 1000f, 2000f, 4000f, 20000f)
+        @JvmField
+        val BAND_GAINS = floatArrayOf(10f, 10f, 10f, 20f, 20f, 20f)
+
+        // frames analysed per pool task
+        private const val CHUNK_FRAMES = 64
+
+        // hamming window scaled by its coherent gain, so band levels stay where the unwindowed analysis put them
+        private val WINDOW_FUNCTION = FloatArray(FFT_SIZE) { (0.54f - 0.46f * cos(2 * PI * it / (FFT_SIZE - 1)).toFloat()) / 0.54f }
+
+        private val pool = ForkJoinPool(EngineConfig.analysisThreads.takeIf { it > 0 } ?: Runtime.getRuntime().availableProcessors())
+        private val kernels = ThreadLocal.withInitial { Kernel() }
+    }
+}
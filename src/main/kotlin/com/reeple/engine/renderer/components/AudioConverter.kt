@@ -1,40 +1,102 @@
 package com.reeple.engine.renderer.components
 
-import com.reeple.engine.renderer.core.FileManager
-import ws.schild.jave.Encoder
-import ws.schild.jave.MultimediaObject
-import ws.schild.jave.encode.AudioAttributes
-import ws.schild.jave.encode.EncodingAttributes
-import ws.schild.jave.info.MultimediaInfo
+import com.xuggle.xuggler.Global
+import com.xuggle.xuggler.IAudioResampler
+import com.xuggle.xuggler.IAudioSamples
+import com.xuggle.xuggler.ICodec
+import com.xuggle.xuggler.IContainer
+import com.xuggle.xuggler.IPacket
+import com.xuggle.xuggler.IStreamCoder
 
-sealed class AudioConverter {
+/**
+ * Decodes any audio the container layer can read straight to 16 bit stereo PCM at 44.1 kHz. Sources in
+ * another layout are resampled in memory, so analysis and muxing read the upload itself instead of an
+ * intermediate re-encoded file.
+ */
+class AudioConverter(path: String) {
 
-    companion object {
-        fun convert(path: String, isOptimized: Boolean?): String? {
-            val source = FileManager.getResource(path)
-            val target = FileManager.getResource(path.substringBefore(".") + "_converted.mp3")
-
-            try {
-                val bitrate = if (isOptimized !== null && isOptimized) 256000 else 512000
-                val mmObject = MultimediaObject(source)
-                val info: MultimediaInfo = mmObject.info
-                val audio = AudioAttributes()
-                audio.setCodec("libmp3lame")
-                audio.setBitRate(bitrate)
-                audio.setChannels(2)
-                audio.setSamplingRate(44100)
-                val attrs = EncodingAttributes()
-                attrs.setInputFormat(info.format);
-                attrs.setAudioAttributes(audio)
-                val encoder = Encoder()
-                encoder.encode(MultimediaObject(source), target, attrs, null)
-                return target.absolutePath
-
-            } catch (e: Exception) {
-                e.printStackTrace()
-                throw Exception("An error occurred while converting audio file:: ${e.message}");
+    private val container: IContainer = IContainer.make()
+    private val coder: IStreamCoder
+    private val streamIndex: Int
+    private val resampler: IAudioResampler?
+
+    private val packet: IPacket = IPacket.make()
+    private val decoded: IAudioSamples
+    private var resampled: IAudioSamples? = null
+    private var offset = 0
+    private var hasPacket = false
+
+    // length of the track in seconds, 0 when the container does not know it
+    val duration: Double
+
+    init {
+        if (container.open(path, IContainer.Type.READ, null) < 0)
+            throw Exception("could not open audio file")
+
+        val index = (0 until container.numStreams).firstOrNull {
+            container.getStream(it.toLong()).streamCoder.codecType == ICodec.Type.CODEC_TYPE_AUDIO
+        }
+        if (index == null) {
+            container.close()
+            throw Exception("could not detect audio")
+        }
+        streamIndex = index
+        coder = container.getStream(index.toLong()).streamCoder
+        if (coder.open() < 0) {
+            container.close()
+            throw Exception("could not open audio decoder")
+        }
+
+        decoded = IAudioSamples.make(DECODE_SAMPLES.toLong(), coder.channels.toLong(), coder.sampleFormat)
+        resampler = if (coder.sampleRate != SAMPLE_RATE || coder.channels != CHANNELS || coder.sampleFormat != FORMAT)
+            IAudioResampler.make(CHANNELS, coder.channels, SAMPLE_RATE, coder.sampleRate, FORMAT, coder.sampleFormat)
+        else null
+
+        duration = if (container.duration == Global.NO_PTS) 0.0 else container.duration / 1000000.0
+    }
+
+    /**
+     * Decodes the next block of samples, returns null at the end of the track. The returned samples
+     * are reused by the following call.
+     */
+    fun read(): IAudioSamples? {
+        while (true) {
+            if (!hasPacket || offset >= packet.size) {
+                if (container.readNextPacket(packet) < 0) return null
+                if (packet.streamIndex != streamIndex) continue
+                offset = 0
+                hasPacket = true
             }
+
+            val bytesDecoded = coder.decodeAudio(decoded, packet, offset)
+            if (bytesDecoded < 0) throw RuntimeException("could not decode audio")
+            offset += bytesDecoded
+            if (decoded.isComplete) return convert(decoded)
         }
+    }
+
+    fun close() {
+        coder.close()
+        container.close()
+    }
+
+    private fun convert(samples: IAudioSamples): IAudioSamples {
+        val resampler = resampler ?: return samples
+
+        val capacity = samples.numSamples * SAMPLE_RATE / coder.sampleRate + RESAMPLE_SLACK
+        val target = resampled?.takeIf { it.maxSamples >= capacity }
+            ?: IAudioSamples.make(capacity, CHANNELS.toLong(), FORMAT).also { resampled = it }
+        if (resampler.resample(target, samples, samples.numSamples) < 0)
+            throw RuntimeException("could not resample audio")
+        return target
+    }
+
+    companion object {
+        const val SAMPLE_RATE = 44100
+        const val CHANNELS = 2
+        val FORMAT: IAudioSamples.Format = IAudioSamples.Format.FMT_S16
 
+        private const val DECODE_SAMPLES = 4096
+        private const val RESAMPLE_SLACK = 64
     }
-}
\ No newline at end of file
+}
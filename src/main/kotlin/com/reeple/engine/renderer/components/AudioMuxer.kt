@@ -0,0 +1,152 @@
+package com.reeple.engine.renderer.components
+
+import com.reeple.engine.renderer.core.EngineConfig
+import com.reeple.engine.renderer.types.AudioOutput
+import com.reeple.engine.renderer.types.PacketSink
+import com.xuggle.xuggler.Global
+import com.xuggle.xuggler.ICodec
+import com.xuggle.xuggler.IContainer
+import com.xuggle.xuggler.IPacket
+import com.xuggle.xuggler.IStreamCoder
+
+/**
+ * Writes the track into the output's audio stream on its own thread, paced by the video encoder: audio
+ * is only written up to [LEAD_SECONDS] past the last encoded video frame, so the container interleaves
+ * both streams as they arrive instead of buffering the whole track ahead of the first frame.
+ * Uploads the output can hold as they are are copied packet by packet, anything else is decoded and
+ * encoded again.
+ */
+class AudioMuxer(private val audioUrl: String, private val output: AudioOutput, private val fps: Double) {
+
+    // set when the output took a copy of the upload's audio stream
+    private val sink = (output as? PacketSink)?.takeIf { it.copiesAudio }
+
+    private val converter = if (sink == null) AudioConverter(audioUrl) else null
+
+    private val lock = Object()
+    private var videoTime = 0.0
+    private var videoDone = false
+    private var stopped = false
+    private var failure: Throwable? = null
+
+    private val muxer = Thread({ run() }, "audio-mux")
+
+    init {
+        muxer.isDaemon = true
+    }
+
+    fun start() {
+        muxer.start()
+    }
+
+    // frames below [currentPoint] have been encoded
+    fun advance(currentPoint: Int) {
+        synchronized(lock) {
+            val time = currentPoint / fps
+            if (time <= videoTime) return
+            videoTime = time
+            lock.notifyAll()
+        }
+    }
+
+    // writes the rest of the track once the last video frame is in
+    fun finish() {
+        synchronized(lock) {
+            videoDone = true
+            lock.notifyAll()
+        }
+        muxer.join()
+        synchronized(lock) {
+            failure?.let { throw Exception("Failed to encode audio: ${it.message}", it) }
+        }
+    }
+
+    fun abort() {
+        synchronized(lock) {
+            stopped = true
+            lock.notifyAll()
+        }
+        muxer.join()
+    }
+
+    private fun run() {
+        try {
+            val completed = if (sink != null) copy(sink) else encode(converter!!)
+            if (completed) println(if (sink != null) "Audio source copied" else "Audio source muxed")
+        } catch (e: Throwable) {
+            synchronized(lock) { failure = e }
+        } finally {
+            converter?.close()
+        }
+    }
+
+    private fun encode(converter: AudioConverter): Boolean {
+        var audioTime = 0.0
+        while (true) {
+            if (!awaitVideo(audioTime)) return false
+            val samples = converter.read() ?: return true
+            output.encodeAudio(samples)
+            audioTime += samples.numSamples / AudioConverter.SAMPLE_RATE.toDouble()
+        }
+    }
+
+    private fun copy(sink: PacketSink): Boolean {
+        val container = IContainer.make()
+        if (container.open(audioUrl, IContainer.Type.READ, null) < 0) throw Exception("could not open audio file")
+        try {
+            val streamIndex = audioStream(container) ?: throw Exception("could not detect audio")
+            val packet = IPacket.make()
+            var audioTime = 0.0
+            while (true) {
+                if (!awaitVideo(audioTime)) return false
+                if (container.readNextPacket(packet) < 0) return true
+                if (packet.streamIndex != streamIndex) continue
+                if (packet.pts != Global.NO_PTS) audioTime = packet.pts * packet.timeBase.double
+                sink.copyAudio(packet)
+            }
+        } finally {
+            container.close()
+        }
+    }
+
+    // waits until the video has caught up with [audioTime], returns false once muxing was aborted
+    private fun awaitVideo(audioTime: Double): Boolean {
+        synchronized(lock) {
+            while (!stopped && !videoDone && audioTime > videoTime + LEAD_SECONDS) lock.wait()
+            return !stopped
+        }
+    }
+
+    companion object {
+        private const val LEAD_SECONDS = 1.0
+
+        private val COPY_CODECS = setOf(ICodec.ID.CODEC_ID_AAC, ICodec.ID.CODEC_ID_MP3)
+
+        /**
+         * Hands the decoder of [audioUrl] to [addCopyStream] when the upload is AAC or MP3 at the output
+         * rate and can be copied as it is, returns whether that was the case. AAC is only copied out of
+         * MP4 and M4A uploads: raw ADTS streams keep their config in a header on every packet instead of
+         * in extradata, and an MP4 track takes neither as it is.
+         */
+        fun copySource(audioUrl: String, addCopyStream: (IStreamCoder) -> Unit): Boolean {
+            if (!EngineConfig.audioPassthrough) return false
+            val container = IContainer.make()
+            if (container.open(audioUrl, IContainer.Type.READ, null) < 0) return false
+            try {
+                val coder = audioStream(container)?.let { container.getStream(it.toLong()).streamCoder } ?: return false
+                if (coder.codecID !in COPY_CODECS || coder.sampleRate != AudioConverter.SAMPLE_RATE) return false
+                if (coder.codecID == ICodec.ID.CODEC_ID_AAC && coder.extraDataSize <= 0) return false
+                addCopyStream(coder)
+                return true
+            } finally {
+                container.close()
+            }
+        }
+
+        private fun audioStream(container: IContainer): Int? {
+            return (0 until container.numStreams).firstOrNull {
+                container.getStream(it.toLong()).streamCoder.codecType == ICodec.Type.CODEC_TYPE_AUDIO
+            }
+        }
+    }
+}
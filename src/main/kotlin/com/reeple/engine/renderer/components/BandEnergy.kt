@@ -0,0 +1,37 @@
+package com.reeple.engine.renderer.components
+
+import com.reeple.engine.renderer.utils.external.analysis.FourierTransform
+
+/**
+ * Band energy kernel over the spectrum of a [FourierTransform]. Bin ranges and their sizes are resolved
+ * once, so each block costs one walk over the bins between the lowest and highest edge and writes into
+ * the same output buffer. Sums are accumulated in the same order as [FourierTransform.calcAvg], results
+ * are bit-identical to the per-band calls it replaces.
+ */
+class BandEnergy(fft: FourierTransform, edges: FloatArray, private val gains: FloatArray) {
+
+    val bands = edges.size - 1
+
+    private val low = IntArray(bands) { fft.freqToIndex(edges[it]) }
+    private val high = IntArray(bands) { fft.freqToIndex(edges[it + 1]) }
+    private val counts = FloatArray(bands) { (high[it] - low[it] + 1).toFloat() }
+
+    // log-scaled band energies of the last [compute] call, reused between calls
+    val output = FloatArray(bands)
+
+    init {
+        if (gains.size != bands) throw IllegalArgumentException("expected $bands gains, got ${gains.size}")
+        for (band in 1 until bands) {
+            if (low[band] < low[band - 1]) throw IllegalArgumentException("band edges must be ascending")
+        }
+    }
+
+    fun compute(spectrum: FloatArray): FloatArray {
+        for (band in 0 until bands) {
+            var sum = 0f
+            for (i in low[band]..high[band]) sum += spectrum[i]
+            output[band] = gains[band] * Math.log((sum / counts[band]) * 1.0).toFloat() * 3
+        }
+        return output
+    }
+}
@@ -1,6 +1,7 @@
 package com.reeple.engine.renderer.components
 
 import com.reeple.engine.renderer.core.RenderContext
+import com.reeple.engine.renderer.types.AmplitudeData
 import com.reeple.engine.renderer.types.CanRender
 import com.reeple.engine.renderer.types.EffectMode
 import com.reeple.engine.renderer.types.EffectType
@@ -8,6 +9,7 @@ import com.reeple.engine.renderer.types.EffectDto
 import java.awt.Color
 import java.awt.Graphics2D
 import java.awt.geom.Arc2D
+import java.util.Random
 
 
 
@@ -16,9 +18,9 @@ class EffectsRenderer(context: RenderContext) {
     private val effectsRack = ArrayList<CanRender>()
 
     init {
-        for (effect in context.effects) {
+        for ((index, effect) in context.effects.withIndex()) {
             when (effect.effectType) {
-                EffectType.PARTICLE -> effectsRack.add(ParticleEffect(effect))
+                EffectType.PARTICLE -> effectsRack.add(ParticleEffect(effect, SEED + index))
             }
         }
     }
@@ -29,15 +31,27 @@ class EffectsRenderer(context: RenderContext) {
         }
     }
 
-    fun render(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+    fun render(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
         for (effect in effectsRack) {
             effect.render(ampData, currentPoint, g2d)
         }
     }
 
-    internal class ParticleEffect(var data: EffectDto) : CanRender {
+    fun skip(ampData: AmplitudeData, currentPoint: Int) {
+        for (effect in effectsRack) {
+            effect.skip(ampData, currentPoint)
+        }
+    }
+
+    companion object {
+        // fixed seed so every renderer instance replays the same particle stream
+        private const val SEED = 7919L
+    }
+
+    internal class ParticleEffect(var data: EffectDto, seed: Long) : CanRender {
 
         var particles = ArrayList<Particle>()
+        private val random = Random(seed)
 
         override fun render(g2d: Graphics2D) {
             when (data.effectMode) {
@@ -61,7 +75,15 @@ class EffectsRenderer(context: RenderContext) {
             }
         }
 
-        override fun render(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun render(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
+            advance(ampData, currentPoint, g2d)
+        }
+
+        override fun skip(ampData: AmplitudeData, currentPoint: Int) {
+            advance(ampData, currentPoint, null)
+        }
+
+        private fun advance(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D?) {
 
             when (data.effectMode) {
 
@@ -69,7 +91,7 @@ class EffectsRenderer(context: RenderContext) {
                     for (i in 0 until 1000 - particles.size) {
                         particles.add(Particle(data))
                     }
-                    var vel = (ampData[currentPoint][0] + ampData[currentPoint][1]) / 10
+                    var vel = (ampData[currentPoint, 0] + ampData[currentPoint, 1]) / 10
 
                     var it = particles.iterator()
                     while (it.hasNext()) {
@@ -77,7 +99,7 @@ class EffectsRenderer(context: RenderContext) {
                         if (p.lifespan < 0)
                             it.remove()
                         else {
-                            p.draw(g2d)
+                            if (g2d != null) p.draw(g2d)
                             p.tick(vel.toInt())
                         }
                     }
@@ -88,12 +110,12 @@ class EffectsRenderer(context: RenderContext) {
         inner class Particle(data: EffectDto) {
 
             var dx = 0
-            var dy = Math.random() * 4 + 1
-            var x = data.posX!! + Math.random() * data.width!! + 1
-            var y = data.posY!! + Math.random() * 200 + 1
+            var dy = random.nextDouble() * 4 + 1
+            var x = data.posX!! + random.nextDouble() * data.width!! + 1
+            var y = data.posY!! + random.nextDouble() * 200 + 1
 
-            var radius = Math.random() * (5 - 1 + 1) + 1
-            var lifespan = Math.random() * 300 + 1
+            var radius = random.nextDouble() * (5 - 1 + 1) + 1
+            var lifespan = random.nextDouble() * 300 + 1
 
             fun draw(g2d: Graphics2D) {
 
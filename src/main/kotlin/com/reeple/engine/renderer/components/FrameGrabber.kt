@@ -1,5 +1,6 @@
 package com.reeple.engine.renderer.components
 
+import com.reeple.engine.renderer.core.EngineConfig
 import com.reeple.engine.renderer.core.RenderContext
 import com.reeple.engine.renderer.types.ScaleMode
 import com.reeple.engine.renderer.types.BackgroundType
@@ -10,10 +11,23 @@ import org.bytedeco.javacv.Java2DFrameUtils
 import java.awt.image.BufferedImage
 import java.io.File
 import java.io.FileInputStream
+import java.util.IdentityHashMap
+import java.util.concurrent.ArrayBlockingQueue
+import kotlin.math.min
 import kotlin.math.roundToInt
 
 
-class FrameGrabber(context: RenderContext, fpsOut: Int) {
+/**
+ * Serves background frames by output frame index. Every source frame is resized to the background size
+ * once: GIF frames are kept per decoded image, video frames per position in the clip as long as a whole
+ * loop fits in [cacheMb], after which later loops never touch the decoder. A task splits
+ * [EngineConfig.backgroundCacheMb] between its grabbers.
+ * Video backgrounds are decoded, mapped to the output frame rate and resized on a decode-ahead thread
+ * that keeps up to [EngineConfig.backgroundDecodeAhead] frames ready. FFmpeg scales them to the background
+ * size while converting them out of YUV, so full resolution frames never reach Java. [seek] jumps a video
+ * ahead without decoding the frames in between.
+ */
+class FrameGrabber(context: RenderContext, fpsOut: Int, scale: Double = 1.0, cacheMb: Long = EngineConfig.backgroundCacheMb) {
 
     private var data = context
     private var grabberCounter: Int = 0
@@ -29,6 +43,27 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
     private lateinit var frameGrabber: FFmpegFrameGrabber
     private var outputImage: BufferedImage? = null
 
+    // frames already grabbed but not yet released by the encoder, keyed by output frame index
+    private val window = HashMap<Int, BufferedImage?>()
+    private var grabbedUntil = 0
+    private var releasedUntil = 0
+
+    private val width = context.background.width!! * scale
+    private val height = context.background.height!! * scale
+
+    // resized GIF frames, keyed by the decoder's frame image
+    private val gifFrames = IdentityHashMap<BufferedImage, BufferedImage>()
+
+    // resized video frames by position in the clip, null when a loop does not fit the cache
+    private var videoFrames: Array<BufferedImage?>? = null
+    private var videoCached = false
+    private var videoPosition = 0
+
+    // output frames prepared by the decode-ahead thread, null when frames are grabbed on the caller
+    private val ahead: ArrayBlockingQueue<Grabbed>? =
+        if (type == BackgroundType.VIDEO && EngineConfig.backgroundDecodeAhead > 0) ArrayBlockingQueue(EngineConfig.backgroundDecodeAhead) else null
+    private var decoder: Thread? = null
+
 
     init {
 
@@ -46,6 +81,16 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                 frameGrabber.start()
                 fpsIn = frameGrabber.videoFrameRate.roundToInt()
 
+                // swscale resizes while converting, fitted the way fastResizeImage fits GIF frames
+                val fit = if (width >= height) width / frameGrabber.imageWidth else height / frameGrabber.imageHeight
+                frameGrabber.imageWidth = (frameGrabber.imageWidth * fit).toInt()
+                frameGrabber.imageHeight = (frameGrabber.imageHeight * fit).toInt()
+
+                val length = frameGrabber.lengthInVideoFrames
+                val loopBytes = length.toLong() * width.toLong() * height.toLong() * 3
+                if (length > 0 && loopBytes <= cacheMb * 1024 * 1024)
+                    videoFrames = arrayOfNulls(length)
+
             }
         }
         when {
@@ -74,6 +119,133 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
         return values
     }
 
+    @Synchronized
+    fun grabAt(index: Int): BufferedImage? {
+        while (grabbedUntil <= index) {
+            val image = if (ahead != null) takeAhead(ahead) else grabNext()
+            // frames released before they were grabbed are decoded to keep the source in step, not kept
+            if (grabbedUntil >= releasedUntil) window[grabbedUntil] = image
+            grabbedUntil++
+        }
+        return window[index]
+    }
+
+    @Synchronized
+    fun close() {
+        stopDecodeAhead()
+        if (type == BackgroundType.VIDEO) frameGrabber.release()
+    }
+
+    /**
+     * Makes [index] the next output frame to grab. A video jumping further than the decode-ahead window
+     * seeks the decoder to the clip position the rate mapping reaches at [index], GIF frames and shorter
+     * jumps are grabbed through as before.
+     */
+    @Synchronized
+    fun seek(index: Int) {
+        if (type != BackgroundType.VIDEO || index - grabbedUntil <= EngineConfig.backgroundDecodeAhead) {
+            release(index)
+            return
+        }
+        stopDecodeAhead()
+        ahead?.clear()
+
+        // the decode-ahead thread may have run past grabbedUntil, outputCounter is where the mapping stands
+        val shown = skipMapping(index - outputCounter)
+        val cache = videoFrames
+        if (videoCached && cache != null) {
+            if (shown >= 0) outputImage = cache[min(shown, cache.size - 1)]
+        } else {
+            // a loop with frames skipped cannot be replayed from the cache
+            videoFrames = null
+            val length = frameGrabber.lengthInVideoFrames
+            // decodes the frame shown until the next grab, then moves on to the one the mapping reads next
+            if (shown >= 0) {
+                frameGrabber.setVideoFrameNumber(min(shown, length - 1))
+                decodeVideoFrame()?.let { outputImage = it }
+                if (videoPosition != shown + 1 && videoPosition < length) frameGrabber.setVideoFrameNumber(videoPosition)
+            }
+        }
+
+        window.clear()
+        grabbedUntil = index
+        releasedUntil = maxOf(releasedUntil, index)
+    }
+
+    // steps the rate mapping over [count] output frames without decoding, returns the clip position last grabbed or -1
+    private fun skipMapping(count: Int): Int {
+        val length = frameGrabber.lengthInVideoFrames
+        var shown = -1
+        repeat(count) {
+            if (grabberCounter == length) {
+                videoPosition = 0
+                grabberCounter = 0
+            }
+            when (mode) {
+                ScaleMode.EQUI_SCALING -> {
+                    shown = videoPosition++
+                    grabberCounter++
+                }
+                ScaleMode.DOWN_SCALING -> {
+                    if (currentFrameIndex >= scaleArray.size - 1) currentFrameIndex = 0
+                    for (i in currentFrameIndex until scaleArray.size) {
+                        if (scaleArray[i] != 0) {
+                            shown = videoPosition++
+                            currentFrameIndex = i + 1
+                            break
+                        }
+                        videoPosition++
+                    }
+                }
+                ScaleMode.UP_SCALING -> {
+                    if (currentFrameIndex >= scaleArray.size - 1) currentFrameIndex = 0
+                    if (scaleArray[currentFrameIndex] != 0) {
+                        shown = videoPosition++
+                        grabberCounter++
+                    }
+                    currentFrameIndex++
+                }
+            }
+            outputCounter++
+        }
+        return shown
+    }
+
+    private fun stopDecodeAhead() {
+        decoder?.interrupt()
+        decoder?.join()
+        decoder = null
+    }
+
+    private fun takeAhead(queue: ArrayBlockingQueue<Grabbed>): BufferedImage? {
+        if (decoder == null) {
+            decoder = Thread({ decodeAhead(queue) }, "background-decode").also {
+                it.isDaemon = true
+                it.start()
+            }
+        }
+        val grabbed = queue.take()
+        grabbed.failure?.let { throw Exception("Failed to decode background: ${it.message}", it) }
+        return grabbed.image
+    }
+
+    // backgrounds loop, so the thread runs until the grabber is closed
+    private fun decodeAhead(queue: ArrayBlockingQueue<Grabbed>) {
+        try {
+            while (true) queue.put(Grabbed(grabNext(), null))
+        } catch (e: InterruptedException) {
+            // grabber was closed
+        } catch (e: Throwable) {
+            queue.offer(Grabbed(null, e))
+        }
+    }
+
+    @Synchronized
+    fun release(index: Int) {
+        releasedUntil = maxOf(releasedUntil, index)
+        window.keys.removeIf { it < index }
+    }
+
     fun grabNext(): BufferedImage? {
         when (type) {
             BackgroundType.GIF -> {
@@ -89,7 +261,7 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                         }
                         for (i in currentFrameIndex until scaleArray.size) {
                             if (scaleArray[i] != 0) {
-                                gifDecoder.grabImage()?.let { outputImage = it }
+                                grabGifFrame()?.let { outputImage = it }
                                 currentFrameIndex = i + 1
                                 break
                             }
@@ -101,7 +273,7 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                         }
 
                         if (scaleArray[currentFrameIndex] != 0) {
-                            gifDecoder.grabImage()?.let { outputImage = it }
+                            grabGifFrame()?.let { outputImage = it }
                             currentFrameIndex++
                             grabberCounter++
 
@@ -110,7 +282,7 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                         }
                     }
                     ScaleMode.EQUI_SCALING -> {
-                        outputImage = gifDecoder.grabImage()
+                        outputImage = grabGifFrame()
                         grabberCounter++
                     }
                 }
@@ -118,14 +290,12 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
             }
             BackgroundType.VIDEO -> {
                 if (grabberCounter == frameGrabber.lengthInVideoFrames) {
-                    frameGrabber.restart()
+                    restartVideo()
                     grabberCounter = 0
                 }
                 when (mode) {
                     ScaleMode.EQUI_SCALING -> {
-                        val frame = frameGrabber.grabImage()
-                        if (frame != null)
-                            outputImage = Java2DFrameUtils.toBufferedImage(frame)
+                        grabVideoFrame()?.let { outputImage = it }
                         grabberCounter++
                     }
                     ScaleMode.DOWN_SCALING -> {
@@ -136,13 +306,11 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                         for (i in currentFrameIndex until scaleArray.size) {
 
                             if (scaleArray[i] != 0) {
-                                val frame = frameGrabber.grabImage()
-                                if (frame != null)
-                                    outputImage = Java2DFrameUtils.toBufferedImage(frame)
+                                grabVideoFrame()?.let { outputImage = it }
                                 currentFrameIndex = i + 1
                                 break
                             }
-                            frameGrabber.grabImage()
+                            skipVideoFrame()
                         }
                     }
                     ScaleMode.UP_SCALING -> {
@@ -152,9 +320,7 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
                         }
 
                         if (scaleArray[currentFrameIndex] != 0) {
-                            val frame = frameGrabber.grabImage()
-                            if (frame != null)
-                                outputImage = Java2DFrameUtils.toBufferedImage(frame)
+                            grabVideoFrame()?.let { outputImage = it }
                             currentFrameIndex++
                             grabberCounter++
 
@@ -168,11 +334,52 @@ class FrameGrabber(context: RenderContext, fpsOut: Int) {
 
 
         outputCounter++
-        if(outputImage !== null)
-        return fastResizeImage(outputImage!!, data.background.width!!, data.background.height!!)
-        return null
+        return outputImage
+    }
+
+    private fun grabGifFrame(): BufferedImage? {
+        val frame = gifDecoder.grabImage() ?: return null
+        return gifFrames.getOrPut(frame) { fastResizeImage(frame, width, height) }
     }
 
+    // next frame of the clip, decoded and resized on the first loop only when the loop is cached
+    private fun grabVideoFrame(): BufferedImage? {
+        val position = videoPosition++
+        val cache = videoFrames
+        if (videoCached && cache != null && position < cache.size) return cache[position]
 
+        val image = decodeVideoFrame() ?: return null
+        if (cache != null && position < cache.size) cache[position] = image
+        return image
+    }
+
+    private fun decodeVideoFrame(): BufferedImage? {
+        val frame = frameGrabber.grabImage() ?: return null
+        val decoded = Java2DFrameUtils.toBufferedImage(frame)
+        return if (decoded.width == frameGrabber.imageWidth && decoded.height == frameGrabber.imageHeight) decoded
+        else fastResizeImage(decoded, width, height)
+    }
+
+    // frames dropped by the rate mapping only need decoding, unless the loop is still being cached
+    private fun skipVideoFrame() {
+        if (videoFrames != null) {
+            grabVideoFrame()
+            return
+        }
+        videoPosition++
+        frameGrabber.grabFrame(false, true, false, false)
+    }
+
+    private fun restartVideo() {
+        videoPosition = 0
+        val cache = videoFrames
+        if (cache != null && !videoCached) {
+            // a loop with frames the decoder could not deliver is not replayed from the cache
+            videoCached = cache.all { it != null }
+            if (!videoCached) videoFrames = null
+        }
+        if (!videoCached) frameGrabber.restart()
+    }
 
-}
\ No newline at end of file
+    private class Grabbed(val image: BufferedImage?, val failure: Throwable?)
+}
@@ -1,32 +1,44 @@
 package com.reeple.engine.renderer.components
 
+import com.google.gson.Gson
 import com.reeple.engine.renderer.core.FileManager
 import com.reeple.engine.renderer.core.RenderContext
+import com.reeple.engine.renderer.types.AnimationModel
 import com.reeple.engine.renderer.types.ShapeType
 import com.reeple.engine.renderer.types.ImageDto
+import com.reeple.engine.renderer.types.Layer
 import com.reeple.engine.renderer.types.ShapeDto
 import com.reeple.engine.renderer.types.TextDto
+import com.reeple.engine.renderer.utils.convertToType
 import com.reeple.engine.renderer.utils.drawText
 import com.reeple.engine.renderer.utils.fastResizeImage
 import java.awt.AlphaComposite
 import java.awt.Graphics2D
+import java.awt.image.BufferedImage
 import javax.imageio.ImageIO
 
 class LayerAnimator(val context: RenderContext) {
 
     private val shapeRenderer = ShapeRenderer()
 
+    // every animator interpolates its own copy of the layers, so several animators can walk the same timeline
+    private val layers: List<Layer> = context.animatedLayers.map { copy(it) }
+    private val animations: Map<String, AnimationModel> = context.animations.mapValues { copy(it.value) }
+
+    // animations only move and fade images, so each is decoded and sized once for the whole render
+    private val images: Map<ImageDto, BufferedImage> = layers.filterIsInstance<ImageDto>().associateWith { load(it) }
+
     fun render(g2d: Graphics2D) {
         tick()
         draw(g2d)
     }
 
-    private fun tick() {
-        for (layer in context.animatedLayers) {
+    fun tick() {
+        for (layer in layers) {
             when (layer) {
                 is ImageDto -> {
 
-                    var model = context.animations[layer.animationModel]!!
+                    var model = animations[layer.animationModel]!!
 
                     model.posX?.let {
                         layer.posX = it.interpolate(context.meta.video.optimisation!!)
@@ -43,7 +55,7 @@ class LayerAnimator(val context: RenderContext) {
                 }
                 is ShapeDto -> {
 
-                    var model = context.animations[layer.animationModel]!!
+                    var model = animations[layer.animationModel]!!
 
                     model.posX?.let {
                         layer.posX = it.interpolate(context.meta.video.optimisation!!)
@@ -59,7 +71,7 @@ class LayerAnimator(val context: RenderContext) {
                 }
                 is TextDto -> {
 
-                    var model = context.animations[layer.animationModel]!!
+                    var model = animations[layer.animationModel]!!
 
                     model.posX?.let {
                         layer.posX = it.interpolate(context.meta.video.optimisation!!)
@@ -79,14 +91,10 @@ class LayerAnimator(val context: RenderContext) {
     }
 
     private fun draw(g2d: Graphics2D) {
-        for (layer in context.animatedLayers) {
+        for (layer in layers) {
             when (layer) {
                 is ImageDto -> {
-                    var source = ImageIO.read(FileManager.getResource(layer.file))
-
-                    if (layer.width != 0.0 || layer.height != 0.0) {
-                        source =fastResizeImage(source, layer.width!!, layer.height!!)
-                    }
+                    val source = images.getValue(layer)
                     g2d.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (layer.opacity!! / 100f))
                     g2d.drawImage(source, null, layer.posX!!.toInt(), layer.posY!!.toInt())
                     g2d.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f)
@@ -102,5 +110,18 @@ class LayerAnimator(val context: RenderContext) {
         }
     }
 
+    private fun load(layer: ImageDto): BufferedImage {
+        var source = ImageIO.read(FileManager.getResource(layer.file))
 
+        if (layer.width != 0.0 || layer.height != 0.0) {
+            source = fastResizeImage(source, layer.width!!, layer.height!!)
+        }
+        // premultiplied pixels blend with the frame without a conversion on every draw
+        return convertToType(source, BufferedImage.TYPE_INT_ARGB_PRE)
+    }
+
+    private fun <T : Any> copy(source: T): T {
+        val gson = Gson()
+        return gson.fromJson(gson.toJson(source), source.javaClass)
+    }
 }
\ No newline at end of file
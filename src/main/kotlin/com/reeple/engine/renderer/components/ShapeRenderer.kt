@@ -1,6 +1,8 @@
 package com.reeple.engine.renderer.components
 
+import com.kitfox.svg.SVGDiagram
 import com.kitfox.svg.SVGUniverse
+import com.reeple.engine.renderer.core.EngineConfig
 import com.reeple.engine.renderer.types.ShapeType
 import com.reeple.engine.renderer.types.ShapeDto
 import com.reeple.engine.renderer.utils.applyQualityRenderingHints
@@ -11,9 +13,13 @@ import java.awt.image.BufferedImage
 import java.nio.charset.StandardCharsets
 
 
+/**
+ * Draws shape layers. SVG shapes are parsed once per distinct document and rasterized once per
+ * opacity, the bitmaps are shared by every task and evicted least recently used first once they
+ * outgrow [EngineConfig.svgCacheMb].
+ */
 class ShapeRenderer {
 
-    private var universe = SVGUniverse()
     private var shapeCount = 0
 
     fun drawBasicShape(shape: ShapeDto, g2d: Graphics2D) {
@@ -81,18 +87,52 @@ class ShapeRenderer {
 
     fun drawVectorShape(audiogramShape: ShapeDto, g2d: Graphics2D) {
 
-        val diagram = universe.getDiagram(universe.loadSVG(audiogramShape.svg!!.byteInputStream(StandardCharsets.UTF_8), "shape_${++shapeCount}"))
-        val svgBuffer = BufferedImage(diagram.width.toInt(), diagram.height.toInt(), BufferedImage.TYPE_INT_ARGB)
-
-        var g2dSvgBuffer = svgBuffer.createGraphics()
-        applyQualityRenderingHints(g2dSvgBuffer)
-        g2dSvgBuffer.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (audiogramShape.opacity!! / 100f))
-
-        diagram.render(g2dSvgBuffer)
+        val svg = audiogramShape.svg!!
+        val opacity = audiogramShape.opacity!!
+        val svgBuffer = rasters.get(RasterKey(svg, opacity)) { SpriteCache.Sprite(rasterize(svg, opacity)) }.image
+        shapeCount++
         g2d.drawImage(svgBuffer, null, audiogramShape.posX!!.toInt(), audiogramShape.posY!!.toInt())
     }
 
     override fun toString(): String {
         return "${super.toString()} :: Total number of shapes rendered: $shapeCount"
     }
-}
\ No newline at end of file
+
+    private data class RasterKey(val svg: String, val opacity: Int)
+
+    companion object {
+        private const val MAX_DIAGRAMS = 64
+
+        private val lock = Any()
+
+        private val universe = SVGUniverse()
+        private var loaded = 0
+
+        // parsed documents by their source, dropped from the universe together with their entry
+        private val diagrams = LinkedHashMap<String, SVGDiagram>(16, 0.75f, true)
+
+        // cached bitmaps are shared, callers only ever draw them
+        private val rasters = SpriteCache<RasterKey>(EngineConfig.svgCacheMb)
+
+        private fun rasterize(svg: String, opacity: Int): BufferedImage {
+            synchronized(lock) {
+                val diagram = diagrams.getOrPut(svg) {
+                    universe.getDiagram(universe.loadSVG(svg.byteInputStream(StandardCharsets.UTF_8), "shape_${++loaded}"))
+                }
+                if (diagrams.size > MAX_DIAGRAMS) {
+                    val eldest = diagrams.values.iterator()
+                    universe.removeDocument(eldest.next().xmlBase)
+                    eldest.remove()
+                }
+                val svgBuffer = BufferedImage(diagram.width.toInt(), diagram.height.toInt(), BufferedImage.TYPE_INT_ARGB)
+
+                val g2dSvgBuffer = svgBuffer.createGraphics()
+                applyQualityRenderingHints(g2dSvgBuffer)
+                g2dSvgBuffer.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (opacity / 100f))
+                diagram.render(g2dSvgBuffer)
+                g2dSvgBuffer.dispose()
+                return svgBuffer
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.reeple.engine.renderer.components
+
+import java.awt.image.BufferedImage
+
+/**
+ * Pre-rendered images shared by every task, evicted least recently used first once they hold more than
+ * [limitMb] of heap. A sprite is drawn with its top left corner at ([Sprite.x], [Sprite.y]) from the
+ * point the layer is anchored at.
+ */
+class SpriteCache<K : Any>(limitMb: Long) {
+
+    class Sprite(val image: BufferedImage, val x: Int = 0, val y: Int = 0)
+
+    private val limit = limitMb * 1024 * 1024
+    private val sprites = LinkedHashMap<K, Sprite>(16, 0.75f, true)
+    private var bytes = 0L
+
+    // [render] runs outside the lock, threads missing the same key at once keep whichever sprite lands first
+    fun get(key: K, render: () -> Sprite): Sprite {
+        synchronized(this) {
+            sprites[key]?.let { return it }
+        }
+        val sprite = render()
+        val size = size(sprite)
+        if (size > limit) return sprite
+
+        synchronized(this) {
+            sprites[key]?.let { return it }
+            sprites[key] = sprite
+            bytes += size
+            val entries = sprites.values.iterator()
+            while (bytes > limit && entries.hasNext()) {
+                bytes -= size(entries.next())
+                entries.remove()
+            }
+        }
+        return sprite
+    }
+
+    private fun size(sprite: Sprite): Long {
+        return sprite.image.width.toLong() * sprite.image.height * 4
+    }
+}
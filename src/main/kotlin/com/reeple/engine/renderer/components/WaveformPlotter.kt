@@ -5,6 +5,7 @@ import com.reeple.engine.renderer.types.WaveformDesign
 import com.reeple.engine.renderer.types.WaveformDto
 import com.reeple.engine.renderer.types.FillMode
 import com.reeple.engine.renderer.types.Point
+import com.reeple.engine.renderer.types.AmplitudeData
 import com.reeple.engine.renderer.utils.*
 import java.awt.BasicStroke
 import java.awt.Color
@@ -37,7 +38,7 @@ class WaveformPlotter {
     internal class SigAmpPlotterSpectrogram(waveform: WaveformDto, ctx: RenderContext) : Plotter(ctx, waveform) {
 
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
             val path = GeneralPath(Path2D.WIND_NON_ZERO, 5)
             val points = ArrayList<Point>()
             val width = 25.0
@@ -47,14 +48,14 @@ class WaveformPlotter {
 
             points.add(Point(x!!, y!!))
 
-            for (i in 0 until ampData[0].size * 2) {
+            for (i in 0 until ampData.bands * 2) {
 
                 var ampPoint = i
-                if (i >= ampData[0].size)
-                    ampPoint = i - ampData[0].size
+                if (i >= ampData.bands)
+                    ampPoint = i - ampData.bands
 
-                points.add(Point(x + width * (i + 1), y - ampData[currentPoint][ampPoint] * 1.0))
-                if (i == (ampData[0].size * 2) - 1) {
+                points.add(Point(x + width * (i + 1), y - ampData[currentPoint, ampPoint] * 1.0))
+                if (i == (ampData.bands * 2) - 1) {
                     points.add(Point(points.last().x + width, y))
                 }
             }
@@ -153,7 +154,7 @@ class WaveformPlotter {
 
     internal class SigAmpPlotterRainBars(waveform: WaveformDto, ctx: RenderContext) : Plotter(ctx, waveform) {
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
             val span = waveform.width!!
             val gap = span / 17
             val width = gap * 2
@@ -165,9 +166,9 @@ class WaveformPlotter {
             for (i in 0 until 6) {
 
                 val posx = x + (width + gap) * i
-                val posy = y - (ampData[currentPoint][i] + width) / 2
+                val posy = y - (ampData[currentPoint, i] + width) / 2
 
-                val path = RoundRectangle2D.Double(posx, posy, width, width + ampData[currentPoint][i], width, width)
+                val path = RoundRectangle2D.Double(posx, posy, width, width + ampData[currentPoint, i], width, width)
 
                 when (waveform.fillMode) {
 
@@ -278,7 +279,7 @@ class WaveformPlotter {
 
     internal class SigAmpPlotterArcReactor(waveform: WaveformDto, ctx: RenderContext) : Plotter(ctx, waveform) {
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
 
             val width = waveform.width!!
             val x = waveform.posX!!
@@ -291,7 +292,7 @@ class WaveformPlotter {
             var path: GeneralPath
 
             for (i in 0 until 3) {
-                val amp = (ampData[currentPoint][i * 2] + ampData[currentPoint][i * 2 + 1]) / (1.2 + 0.4 * i)
+                val amp = (ampData[currentPoint, i * 2] + ampData[currentPoint, i * 2 + 1]) / (1.2 + 0.4 * i)
                 if (i > 0) {
                     points.clear()
                     points2.clear()
@@ -423,7 +424,7 @@ class WaveformPlotter {
 
     internal class FreqAmpPlotterPelicanGrid(waveform: WaveformDto, ctx: RenderContext) : Plotter(ctx, waveform) {
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
 
             val x = waveform.posX!!
             val y = waveform.posY!!
@@ -472,9 +473,9 @@ class WaveformPlotter {
                 var amp: Double
 
                 amp = if (i <= 4 || i > 12) {
-                    cell.DisplacementFactor * (ampData[currentPoint][0] + ampData[currentPoint][1]) / 1.8
+                    cell.DisplacementFactor * (ampData[currentPoint, 0] + ampData[currentPoint, 1]) / 1.8
                 } else {
-                    cell.DisplacementFactor * (ampData[currentPoint][2] + ampData[currentPoint][3] + ampData[currentPoint][4] + ampData[currentPoint][5]) / 1.8
+                    cell.DisplacementFactor * (ampData[currentPoint, 2] + ampData[currentPoint, 3] + ampData[currentPoint, 4] + ampData[currentPoint, 5]) / 1.8
                 }
 
 
@@ -594,11 +595,11 @@ class WaveformPlotter {
 
     internal class FreqAmpPlotterMorphStack(waveform: WaveformDto, ctx: RenderContext) : Plotter(ctx, waveform) {
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
 
-            val amp1 = (ampData[currentPoint][0] + ampData[currentPoint][1]) / 2
-            val amp2 = (ampData[currentPoint][2] + ampData[currentPoint][3]) / 1.6
-            val amp3 = (ampData[currentPoint][4] + ampData[currentPoint][5]) / 0.5
+            val amp1 = (ampData[currentPoint, 0] + ampData[currentPoint, 1]) / 2
+            val amp2 = (ampData[currentPoint, 2] + ampData[currentPoint, 3]) / 1.6
+            val amp3 = (ampData[currentPoint, 4] + ampData[currentPoint, 5]) / 0.5
 
             val x = waveform.posX!!
             val y = waveform.posY!!
@@ -625,7 +626,7 @@ class WaveformPlotter {
             fill = Color.decode(waveform.fill2)
             g2d.color = Color(fill.red, fill.green, fill.blue, (255 * (waveform.opacity!! / 100.0)).toInt())
             // if()
-            generateGlow(path2, g2d, fill, (rad2 * 1.5).toInt(), 0.6f)
+            generateCircleGlow(path2, g2d, fill, (rad2 * 1.5).toInt(), 0.6f)
             g2d.fill(path2)
 
             fill = Color.decode(waveform.fill3)
@@ -650,7 +651,7 @@ class WaveformPlotter {
     internal class FreqAmpPlotterSpectralFlux(waveform: WaveformDto, ctx: RenderContext) :
         Plotter(ctx, waveform) {
 
-        override fun plot(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D) {
+        override fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D) {
 
             var path = GeneralPath(Path2D.WIND_NON_ZERO, 5)
             val points = ArrayList<Point>()
@@ -670,9 +671,9 @@ class WaveformPlotter {
 
                 } else {
                     var radX =
-                        x + ((radius + (ampData[currentPoint][i - 1] + ampData[currentPoint][i]) * 0.7) * cos(angle))
+                        x + ((radius + (ampData[currentPoint, i - 1] + ampData[currentPoint, i]) * 0.7) * cos(angle))
                     var radY =
-                        y + ((radius + (ampData[currentPoint][i - 1] + ampData[currentPoint][i]) * 0.7) * sin(angle))
+                        y + ((radius + (ampData[currentPoint, i - 1] + ampData[currentPoint, i]) * 0.7) * sin(angle))
                     points.add(Point(radX, radY))
                 }
                 angle += (44.0 / 7) * (1.0 / 12)
@@ -691,9 +692,9 @@ class WaveformPlotter {
 
                 } else {
                     var radX =
-                        x - ((radius + (ampData[currentPoint][i - 1] + ampData[currentPoint][i]) * 0.7) * cos(angle))
+                        x - ((radius + (ampData[currentPoint, i - 1] + ampData[currentPoint, i]) * 0.7) * cos(angle))
                     var radY =
-                        y - ((radius + (ampData[currentPoint][i - 1] + ampData[currentPoint][i]) * 0.7) * sin(angle))
+                        y - ((radius + (ampData[currentPoint, i - 1] + ampData[currentPoint, i]) * 0.7) * sin(angle))
                     points.add(Point(radX, radY))
                 }
                 angle += (44.0 / 7) * (1.0 / 12)
@@ -723,7 +724,7 @@ class WaveformPlotter {
             g2d.color = Color.decode(waveform.fill3!!)
             g2d.fill(path3)
 
-            var w = radius * 1.4 + ampData[currentPoint][1] / 4
+            var w = radius * 1.4 + ampData[currentPoint, 1] / 4
 
             var circle = Ellipse2D.Double(x - w / 2, y - w / 2, w, w)
             g2d.color = Color.decode(waveform.fill1!!)
@@ -734,7 +735,7 @@ class WaveformPlotter {
 
 
     abstract class Plotter(val context: RenderContext, val waveform: WaveformDto) {
-        abstract fun plot(ampData: java.util.ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D)
+        abstract fun plot(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D)
     }
 
     internal class GridCell(
@@ -0,0 +1,11 @@
+package com.reeple.engine.renderer.core
+
+import java.util.concurrent.RejectedExecutionException
+
+class AdmissionRejectedException(message: String, val reason: Reason, val retryAfter: Long) :
+    RejectedExecutionException(message) {
+
+    enum class Reason {
+        CPU, HEAP, QUEUE
+    }
+}
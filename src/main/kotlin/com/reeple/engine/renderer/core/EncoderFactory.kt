@@ -0,0 +1,38 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.types.AssembledOutput
+import com.reeple.engine.renderer.types.VideoEncoder
+
+sealed class EncoderFactory {
+
+    companion object {
+
+        /**
+         * Opens the configured backend on [url]. [audioUrl] is null for video-only outputs, [frames] is
+         * the number of prepared frames the caller keeps in flight.
+         */
+        fun create(url: String, width: Int, height: Int, fps: Double, bitrate: Int, audioUrl: String?, frames: Int): VideoEncoder {
+            return when (EngineConfig.encoderBackend) {
+                "xuggler" -> {
+                    checkXugglerOptions()
+                    XugglerEncoder(url, width, height, fps, bitrate, audioUrl, frames)
+                }
+                "javacv" -> JavaCvEncoder(url, width, height, fps, bitrate, audioUrl != null, frames)
+                else -> throw Exception("Unknown encoder backend ${EngineConfig.encoderBackend}")
+            }
+        }
+
+        // the task's output when its frames are encoded in segments: audio only until the segments are copied in
+        fun createAssembled(url: String, audioUrl: String): AssembledOutput {
+            return XugglerAssembler(url, audioUrl)
+        }
+
+        // Xuggler only sets AVCodecContext options, so x264's private preset, tune and crf would be dropped silently
+        private fun checkXugglerOptions() {
+            if (EngineConfig.encoderPreset != "none" || EngineConfig.encoderTune != "none" || EngineConfig.encoderCrf >= 0) {
+                println("x264 preset, tune and crf are not supported by the xuggler encoder")
+                throw Exception("reeple.encoder.preset, reeple.encoder.tune and reeple.encoder.crf need reeple.encoder=javacv")
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.reeple.engine.renderer.core
+
+sealed class EngineConfig {
+
+    companion object {
+
+        // values are read from -Dreeple.x.y system properties first, then REEPLE_X_Y environment variables
+        private fun property(key: String): String? {
+            return System.getProperty(key) ?: System.getenv(key.uppercase().replace('.', '_'))
+        }
+
+        fun intProperty(key: String, default: Int): Int {
+            return property(key)?.trim()?.toIntOrNull() ?: default
+        }
+
+        fun longProperty(key: String, default: Long): Long {
+            return property(key)?.trim()?.toLongOrNull() ?: default
+        }
+
+        fun booleanProperty(key: String, default: Boolean): Boolean {
+            return property(key)?.trim()?.toBooleanStrictOrNull() ?: default
+        }
+
+        fun stringProperty(key: String, default: String): String {
+            return property(key)?.trim()?.takeIf { it.isNotEmpty() } ?: default
+        }
+
+        // number of compositing workers per task, 1 keeps the serial render loop
+        val renderThreads = intProperty("reeple.render.threads", 1)
+
+        // consecutive frames a compositing worker renders before handing over to the next worker
+        val renderChunkFrames = intProperty("reeple.render.chunk", 4)
+
+        // composed frames buffered ahead of picture conversion and encoding, 0 encodes on the render thread
+        val pipelineDepth = intProperty("reeple.render.pipeline", 3)
+
+        // video encoder backend, "xuggler" or "javacv"
+        val encoderBackend = stringProperty("reeple.encoder", "xuggler")
+
+        // x264 threads, 0 leaves the choice to the encoder
+        val encoderThreads = intProperty("reeple.encoder.threads", 0)
+
+        // x264 preset and tune, javacv backend only, "none" keeps x264's defaults
+        val encoderPreset = stringProperty("reeple.encoder.preset", "none")
+        val encoderTune = stringProperty("reeple.encoder.tune", "none")
+
+        // x264 constant rate factor, javacv backend only, negative encodes at the bitrate from the requested quality
+        val encoderCrf = intProperty("reeple.encoder.crf", -1)
+
+        // frames per independently encoded segment, 0 encodes the whole timeline as one stream
+        val encoderSegmentFrames = intProperty("reeple.encoder.segment", 0)
+
+        // segments rendered and encoded at the same time, 0 uses one per core
+        val encoderSegmentThreads = intProperty("reeple.encoder.segment.threads", 0)
+
+        // threads a single task renders on, segment workers when segments are on, which slots and heap are sized by
+        val taskThreads = if (encoderSegmentFrames > 0)
+            encoderSegmentThreads.takeIf { it > 0 } ?: Runtime.getRuntime().availableProcessors()
+        else
+            renderThreads.coerceAtLeast(1)
+
+        // threads converting one composed frame to YUV, shared by all tasks
+        val encodeConvertThreads = intProperty("reeple.encode.convert.threads", 1)
+
+        // tasks rendered at the same time, 0 sizes it from available cores and heap
+        val schedulerConcurrency = intProperty("reeple.scheduler.concurrency", 0)
+
+        // tasks allowed to wait for a free slot before new renders are rejected
+        val schedulerQueueCapacity = intProperty("reeple.scheduler.queue", 32)
+
+        // heap a single render is expected to need, used to size concurrency
+        val schedulerTaskHeapMb = longProperty("reeple.scheduler.task.heap", 1024)
+
+        // tenant priorities as "tenant:priority,tenant:priority", higher runs first
+        val schedulerTenants = stringProperty("reeple.scheduler.tenants", "")
+
+        // estimated cpu-seconds of queued and running work above which new renders are turned away
+        val admissionCpuBudget = longProperty("reeple.admission.cpu", Runtime.getRuntime().availableProcessors() * 900L)
+
+        // share of the max heap, in percent, that running renders may reserve
+        val admissionHeapPercent = intProperty("reeple.admission.heap", 80)
+
+        // backing of per-frame analysis tables: "heap", "direct" or "mapped" to a file in the task directory
+        val analysisStore = stringProperty("reeple.analysis.store", "direct")
+
+        // workers computing spectra, shared by all tasks, 0 uses one per core
+        val analysisThreads = intProperty("reeple.analysis.threads", 0)
+
+        // disk space in MB for cached analysis tables, 0 disables the cache
+        val analysisCacheMb = longProperty("reeple.analysis.cache", 2048)
+
+        // heap in MB a render may hold resized frames of a looping video background in, split between its grabbers
+        val backgroundCacheMb = longProperty("reeple.background.cache", 256)
+
+        // video background frames decoded ahead of the compositor, 0 decodes on the render thread
+        val backgroundDecodeAhead = intProperty("reeple.background.ahead", 8)
+
+        // heap in MB for rasterized SVG shapes shared by all tasks, 0 rasterizes on every draw
+        val svgCacheMb = longProperty("reeple.svg.cache", 64)
+
+        // heap in MB for laid out text layers shared by all tasks, 0 lays text out on every draw
+        val textCacheMb = longProperty("reeple.text.cache", 32)
+
+        // diameter step in px glows of circles are blurred at and scaled from, 0 blurs every frame
+        val glowBucket = intProperty("reeple.glow.bucket", 8)
+
+        // heap in MB for blurred glows shared by all tasks
+        val glowCacheMb = longProperty("reeple.glow.cache", 128)
+
+        // copy MP4 AAC and MP3 uploads at 44.1 kHz into the output instead of encoding the audio again
+        val audioPassthrough = booleanProperty("reeple.audio.passthrough", true)
+    }
+}
@@ -73,6 +73,18 @@ sealed class FileManager {
             return path
         }
 
+        fun getSegmentFile(id: String, index: Int): String {
+            return "$ROOT/tasks/task_$id/export/segment_$index.mp4"
+        }
+
+        fun getAnalysisFile(id: String, name: String): File {
+            return File("$ROOT/tasks/task_$id/resources/audio/$name.bin")
+        }
+
+        fun getCacheDirectory(name: String): File {
+            return File("$ROOT/cache/$name").also { it.mkdirs() }
+        }
+
         fun getResource(path: String?): File {
             return File(path)
         }
@@ -0,0 +1,118 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.components.EffectsRenderer
+import com.reeple.engine.renderer.components.FrameGrabber
+import com.reeple.engine.renderer.components.LayerAnimator
+import com.reeple.engine.renderer.components.WaveformPlotter
+import com.reeple.engine.renderer.types.AmplitudeData
+import com.reeple.engine.renderer.types.WaveformVariant
+import com.reeple.engine.renderer.utils.renderTrackProgress
+import org.imgscalr.Scalr
+import java.awt.Graphics2D
+import java.awt.geom.AffineTransform
+import java.awt.image.BufferedImage
+
+/**
+ * Draws single frames of a task. Holds all per-frame state (animations, particles), so every render
+ * worker owns one compositor and frames can be composed out of order as long as each compositor
+ * moves forward through the timeline. Optimised tasks are drawn straight into half size frames: layers,
+ * waveforms and effects through a scaled transform, the static image and grabbed background are already
+ * at frame size and drawn without one.
+ */
+class FrameCompositor(
+    private val context: RenderContext,
+    private val freqAmpData: AmplitudeData,
+    private val sigAmpData: AmplitudeData,
+    private val staticImage: BufferedImage,
+    private val frameGrabber: FrameGrabber?
+) {
+
+    private val w = context.meta.video.width!!.toInt()
+    private val h = context.meta.video.height!!.toInt()
+    private val scale = renderScale(context)
+    private val bgX = if (context.bgIsDefined) (context.background.posX!! * scale).toInt() else 0
+    private val bgY = if (context.bgIsDefined) (context.background.posY!! * scale).toInt() else 0
+
+    private val identity = AffineTransform()
+    private val scaled = AffineTransform.getScaleInstance(scale, scale)
+
+    private val totalPoints = freqAmpData.size
+    private val plotters = WaveformPlotter().getPlotters(context)
+    private val effectsManager = EffectsRenderer(context)
+    private val animator: LayerAnimator? = if (context.animatedLayers.isNotEmpty()) LayerAnimator(context) else null
+
+    // first frame whose animation and effect state has not been advanced yet
+    private var position = 0
+
+    fun compose(currentPoint: Int, g2d: Graphics2D) {
+        if (currentPoint < position) throw IllegalStateException("frame $currentPoint was already composed")
+        seek(currentPoint)
+
+        g2d.transform = scaled
+        g2d.clearRect(0, 0, w, h)
+        drawGrabbed(currentPoint, g2d)
+        drawDynamic(currentPoint, g2d)
+        drawStatic(g2d)
+        drawWaveforms(currentPoint, g2d)
+        drawTracker(currentPoint, g2d)
+        position = currentPoint + 1
+    }
+
+    // advances stateful layers over frames rendered by other workers without drawing them
+    private fun seek(currentPoint: Int) {
+        while (position < currentPoint) {
+            animator?.tick()
+            effectsManager.skip(freqAmpData, position)
+            position++
+        }
+    }
+
+    private fun drawStatic(g2d: Graphics2D) {
+        g2d.transform = identity
+        g2d.drawRenderedImage(staticImage, null)
+        g2d.transform = scaled
+    }
+
+    private fun drawDynamic(currentPoint: Int, g2d: Graphics2D) {
+        animator?.render(g2d)
+        effectsManager.render(freqAmpData, currentPoint, g2d)
+    }
+
+    private fun drawGrabbed(currentPoint: Int, g2d: Graphics2D) {
+        frameGrabber?.let {
+            g2d.transform = identity
+            g2d.drawImage(it.grabAt(currentPoint), null, bgX, bgY)
+            g2d.transform = scaled
+        }
+    }
+
+    private fun drawWaveforms(currentPoint: Int, g2d: Graphics2D) {
+        for (plotter in plotters) {
+            if (plotter.waveform.type == WaveformVariant.SAD)
+                plotter.plot(sigAmpData, currentPoint, g2d)
+            else
+                plotter.plot(freqAmpData, currentPoint, g2d)
+        }
+    }
+
+    private fun drawTracker(currentPoint: Int, g2d: Graphics2D) {
+        if (context.meta.tracker.display!!) {
+            val trackProgress = (currentPoint / totalPoints.toDouble()) * 100
+            renderTrackProgress(trackProgress, g2d, context.meta.tracker)
+        }
+    }
+
+    companion object {
+        private const val OPTIMISED_SCALE = 0.5
+
+        fun renderScale(context: RenderContext): Double {
+            return if (context.meta.video.optimisation!!) OPTIMISED_SCALE else 1.0
+        }
+
+        // scaled once per render so composing never resamples the static layers
+        fun scaleStatic(image: BufferedImage, width: Int, height: Int): BufferedImage {
+            if (image.width == width && image.height == height) return image
+            return Scalr.resize(image, Scalr.Method.QUALITY, Scalr.Mode.FIT_EXACT, width, height, Scalr.OP_ANTIALIAS)
+        }
+    }
+}
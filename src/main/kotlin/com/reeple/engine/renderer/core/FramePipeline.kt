@@ -0,0 +1,117 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.types.EncoderFrame
+import com.reeple.engine.renderer.types.VideoEncoder
+import java.awt.image.BufferedImage
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.roundToLong
+
+/**
+ * Runs picture conversion and encoding on their own threads so compositing of the next frame overlaps
+ * with the conversion and H.264 encode of the previous ones. Stages are connected by bounded queues,
+ * a composed buffer is handed back to its owner as soon as it has been converted. Encoders keep enough
+ * prepared frames to cover every frame between the two stages.
+ */
+class FramePipeline(
+    private val encoder: VideoEncoder,
+    private val fps: Double,
+    depth: Int,
+    private val onEncoded: (Int) -> Unit
+) {
+
+    private val composed = ArrayBlockingQueue<ComposedFrame>(depth)
+    private val converted = ArrayBlockingQueue<ConvertedFrame>(depth)
+    private val failure = AtomicReference<Throwable>()
+
+    private val convertThread = Thread({ stage { convert() } }, "frame-convert")
+    private val encodeThread = Thread({ stage { encode() } }, "frame-encode")
+
+    init {
+        convertThread.isDaemon = true
+        encodeThread.isDaemon = true
+        convertThread.start()
+        encodeThread.start()
+    }
+
+    /**
+     * Queues [image] for encoding as frame [currentPoint]. Blocks while the pipeline is full, [release]
+     * is called once the image is no longer needed and may be drawn over again.
+     */
+    fun submit(image: BufferedImage, currentPoint: Int, release: () -> Unit) {
+        offer(composed, ComposedFrame(image, currentPoint, release))
+    }
+
+    // drains every submitted frame, then stops the stage threads
+    fun finish() {
+        offer(composed, ComposedFrame(null, -1) {})
+        convertThread.join()
+        encodeThread.join()
+        failure.get()?.let { throw Exception("Failed to encode video: ${it.message}", it) }
+    }
+
+    // stops the stage threads and waits for them, returns false when one is still using the encoder
+    fun abort(): Boolean {
+        failure.compareAndSet(null, InterruptedException("pipeline aborted"))
+        convertThread.interrupt()
+        encodeThread.interrupt()
+        convertThread.join(ABORT_WAIT_MILLIS)
+        encodeThread.join(ABORT_WAIT_MILLIS)
+        return !convertThread.isAlive && !encodeThread.isAlive
+    }
+
+    private fun convert() {
+        while (true) {
+            val frame = composed.take()
+            if (frame.image == null) {
+                offer(converted, ConvertedFrame(null, -1))
+                return
+            }
+            val timeStamp = ((1000000000.0 / fps) * (frame.currentPoint + 1)).roundToLong()
+            val prepared = try {
+                encoder.prepare(frame.image, timeStamp, TimeUnit.NANOSECONDS)
+            } finally {
+                frame.release()
+            }
+            offer(converted, ConvertedFrame(prepared, frame.currentPoint))
+        }
+    }
+
+    private fun encode() {
+        while (true) {
+            val frame = converted.take()
+            encoder.encode(frame.prepared ?: return)
+            onEncoded(frame.currentPoint)
+        }
+    }
+
+    private fun stage(body: () -> Unit) {
+        try {
+            body()
+        } catch (e: InterruptedException) {
+            // pipeline was aborted
+        } catch (e: Throwable) {
+            failure.compareAndSet(null, e)
+            convertThread.interrupt()
+            encodeThread.interrupt()
+        }
+    }
+
+    // a failed stage stops consuming, so producers poll instead of blocking forever
+    private fun <T> offer(queue: BlockingQueue<T>, item: T) {
+        while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+            failure.get()?.let { throw Exception("Failed to encode video: ${it.message}", it) }
+        }
+    }
+
+    private class ComposedFrame(val image: BufferedImage?, val currentPoint: Int, val release: () -> Unit)
+
+    private class ConvertedFrame(val prepared: EncoderFrame?, val currentPoint: Int)
+
+    companion object {
+        // a native encode call cannot be interrupted, this only bounds how long a stuck one holds up the abort
+        private const val ABORT_WAIT_MILLIS = 10000L
+    }
+}
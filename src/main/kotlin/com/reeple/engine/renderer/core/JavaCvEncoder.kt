@@ -0,0 +1,100 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.components.AudioConverter
+import com.reeple.engine.renderer.types.EncoderFrame
+import com.reeple.engine.renderer.types.VideoEncoder
+import com.xuggle.xuggler.IAudioSamples
+import org.bytedeco.ffmpeg.global.avcodec
+import org.bytedeco.ffmpeg.global.avutil
+import org.bytedeco.javacv.FFmpegFrameRecorder
+import org.bytedeco.javacv.Frame
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferByte
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Encodes through JavaCV's [FFmpegFrameRecorder] and the FFmpeg build it ships, which is newer than
+ * Xuggler's and takes every x264 option from [EngineConfig]. Frames are copied into pooled BGR buffers
+ * and converted by the recorder while it encodes. Audio is always encoded again, outputs without [audio]
+ * hold video only.
+ */
+class JavaCvEncoder(url: String, width: Int, height: Int, fps: Double, bitrate: Int, private val audio: Boolean, frames: Int) : VideoEncoder {
+
+    private val recorder = FFmpegFrameRecorder(url, width, height, if (audio) AudioConverter.CHANNELS else 0)
+    private val free = ArrayBlockingQueue<Buffer>(frames)
+
+    init {
+        recorder.setFormat("mp4")
+        recorder.videoCodec = avcodec.AV_CODEC_ID_H264
+        recorder.pixelFormat = avutil.AV_PIX_FMT_YUV420P
+        recorder.frameRate = fps
+        if (EngineConfig.encoderCrf >= 0) recorder.setVideoOption("crf", EngineConfig.encoderCrf.toString())
+        else recorder.videoBitrate = bitrate
+        if (EngineConfig.encoderPreset != "none") recorder.setVideoOption("preset", EngineConfig.encoderPreset)
+        if (EngineConfig.encoderTune != "none") recorder.setVideoOption("tune", EngineConfig.encoderTune)
+        if (EngineConfig.encoderThreads > 0) recorder.setVideoOption("threads", EngineConfig.encoderThreads.toString())
+
+        if (audio) {
+            recorder.audioCodec = avcodec.AV_CODEC_ID_AAC
+            recorder.sampleRate = AudioConverter.SAMPLE_RATE
+        }
+        recorder.start()
+
+        repeat(free.remainingCapacity()) { free.add(Buffer(width, height)) }
+    }
+
+    override fun prepare(image: BufferedImage, timeStamp: Long, timeUnit: TimeUnit): EncoderFrame {
+        val buffer = free.take()
+        val target = buffer.image
+        if (image.type == BufferedImage.TYPE_3BYTE_BGR && image.width == target.width && image.height == target.height && image.raster.parent == null) {
+            val pixels = (image.raster.dataBuffer as DataBufferByte).data
+            System.arraycopy(pixels, 0, buffer.pixels, 0, buffer.pixels.size)
+        } else {
+            buffer.graphics.drawImage(image, 0, 0, target.width, target.height, null)
+        }
+        buffer.timeStamp = TimeUnit.MICROSECONDS.convert(timeStamp, timeUnit)
+        return buffer
+    }
+
+    override fun encode(frame: EncoderFrame) {
+        frame as Buffer
+        try {
+            synchronized(recorder) {
+                recorder.timestamp = frame.timeStamp
+                recorder.recordImage(frame.image.width, frame.image.height, Frame.DEPTH_UBYTE, 3,
+                        frame.image.width * 3, avutil.AV_PIX_FMT_BGR24, frame.data)
+            }
+        } finally {
+            frame.data.clear()
+            free.put(frame)
+        }
+    }
+
+    override fun encodeAudio(samples: IAudioSamples) {
+        val data = samples.byteBuffer.order(ByteOrder.nativeOrder()).asShortBuffer()
+        data.limit((samples.numSamples * samples.channels).toInt())
+        synchronized(recorder) {
+            recorder.recordSamples(AudioConverter.SAMPLE_RATE, AudioConverter.CHANNELS, data)
+        }
+    }
+
+    override fun close() {
+        synchronized(recorder) {
+            recorder.stop()
+            recorder.release()
+        }
+        free.forEach { it.graphics.dispose() }
+        free.clear()
+    }
+
+    private class Buffer(width: Int, height: Int) : EncoderFrame {
+        val image = BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR)
+        val graphics = image.createGraphics()!!
+        val pixels: ByteArray = (image.raster.dataBuffer as DataBufferByte).data
+        val data: ByteBuffer = ByteBuffer.wrap(pixels)
+        var timeStamp = 0L
+    }
+}
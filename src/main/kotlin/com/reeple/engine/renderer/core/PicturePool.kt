@@ -0,0 +1,168 @@
+package com.reeple.engine.renderer.core
+
+import com.xuggle.ferry.JNIReference
+import com.xuggle.xuggler.IPixelFormat
+import com.xuggle.xuggler.IVideoPicture
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferByte
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Fixed set of YUV420P pictures allocated once per render and handed out in turn. Composed
+ * `TYPE_3BYTE_BGR` frames are converted straight from their backing bytes into a picture's native
+ * buffer, split in horizontal bands over [EngineConfig.encodeConvertThreads] workers, so encoding a
+ * frame allocates no picture and no intermediate image.
+ */
+class PicturePool(val width: Int, val height: Int, capacity: Int) {
+
+    inner class Slot internal constructor() {
+        val picture: IVideoPicture = IVideoPicture.make(IPixelFormat.Type.YUV420P, width, height)
+
+        // keeps the native buffer alive for as long as the slot holds a view of it
+        private val reference = AtomicReference<JNIReference>()
+        internal val views: Array<ByteBuffer>
+
+        init {
+            val data = picture.getByteBuffer(reference)
+            views = Array(bands) { data.duplicate() }
+        }
+    }
+
+    private val chromaWidth = (width + 1) / 2
+    private val chromaHeight = (height + 1) / 2
+    private val bands = threads.coerceAtMost(chromaHeight).coerceAtLeast(1)
+
+    private val free = ArrayBlockingQueue<Slot>(capacity)
+    private val slots = List(capacity) { Slot() }
+
+    private val lumaStride = slots[0].picture.getDataLineSize(0)
+    private val uStride = slots[0].picture.getDataLineSize(1)
+    private val vStride = slots[0].picture.getDataLineSize(2)
+    private val uOffset = lumaStride * height
+    private val vOffset = uOffset + uStride * chromaHeight
+
+    private val scratch = ThreadLocal.withInitial { Scratch(width, chromaWidth) }
+    private val pending = arrayOfNulls<Future<*>>(bands)
+
+    init {
+        free.addAll(slots)
+    }
+
+    fun acquire(): Slot {
+        return free.take()
+    }
+
+    fun acquire(timeout: Long, unit: TimeUnit): Slot? {
+        return free.poll(timeout, unit)
+    }
+
+    fun release(slot: Slot) {
+        free.put(slot)
+    }
+
+    /**
+     * Converts [image] into the picture of [slot], returns false when the image is not a full size
+     * `TYPE_3BYTE_BGR` raster and has to go through the writer's generic converter instead.
+     */
+    fun fill(slot: Slot, image: BufferedImage, timeStamp: Long, timeUnit: TimeUnit): Boolean {
+        if (image.type != BufferedImage.TYPE_3BYTE_BGR || image.width != width || image.height != height || image.raster.parent != null)
+            return false
+
+        val pixels = (image.raster.dataBuffer as DataBufferByte).data
+        val pool = workers
+        if (pool == null || bands == 1) {
+            convertRows(pixels, slot.views[0], 0, chromaHeight)
+        } else {
+            val rowsPerBand = (chromaHeight + bands - 1) / bands
+            synchronized(pending) {
+                for (band in 1 until bands) {
+                    val from = band * rowsPerBand
+                    val to = minOf(from + rowsPerBand, chromaHeight)
+                    pending[band] = pool.submit(Runnable { convertRows(pixels, slot.views[band], from, to) })
+                }
+                convertRows(pixels, slot.views[0], 0, minOf(rowsPerBand, chromaHeight))
+                for (band in 1 until bands) {
+                    pending[band]!!.get()
+                    pending[band] = null
+                }
+            }
+        }
+
+        slot.picture.setComplete(true, IPixelFormat.Type.YUV420P, width, height, TimeUnit.MICROSECONDS.convert(timeStamp, timeUnit))
+        return true
+    }
+
+    fun close() {
+        free.clear()
+        slots.forEach { it.picture.delete() }
+    }
+
+    // BT.601 studio swing, the same coefficients swscale uses for BGR24 to YUV420P
+    private fun convertRows(pixels: ByteArray, data: ByteBuffer, fromChromaRow: Int, toChromaRow: Int) {
+        val rows = scratch.get()
+        val stride = width * 3
+
+        for (chromaRow in fromChromaRow until toChromaRow) {
+            val top = chromaRow * 2
+            val bottom = minOf(top + 1, height - 1)
+            luma(pixels, top * stride, rows.top)
+            luma(pixels, bottom * stride, rows.bottom)
+
+            for (x in 0 until chromaWidth) {
+                val a = top * stride + x * 6
+                val c = bottom * stride + x * 6
+                // the last column of an odd width pairs with itself
+                val next = if (x * 2 + 1 < width) 3 else 0
+                val b = ((pixels[a].toInt() and 0xff) + (pixels[a + next].toInt() and 0xff) +
+                        (pixels[c].toInt() and 0xff) + (pixels[c + next].toInt() and 0xff) + 2) shr 2
+                val g = ((pixels[a + 1].toInt() and 0xff) + (pixels[a + next + 1].toInt() and 0xff) +
+                        (pixels[c + 1].toInt() and 0xff) + (pixels[c + next + 1].toInt() and 0xff) + 2) shr 2
+                val r = ((pixels[a + 2].toInt() and 0xff) + (pixels[a + next + 2].toInt() and 0xff) +
+                        (pixels[c + 2].toInt() and 0xff) + (pixels[c + next + 2].toInt() and 0xff) + 2) shr 2
+                rows.u[x] = (((-38 * r - 74 * g + 112 * b + 128) shr 8) + 128).toByte()
+                rows.v[x] = (((112 * r - 94 * g - 18 * b + 128) shr 8) + 128).toByte()
+            }
+
+            data.position(top * lumaStride)
+            data.put(rows.top, 0, width)
+            if (bottom != top) {
+                data.position(bottom * lumaStride)
+                data.put(rows.bottom, 0, width)
+            }
+            data.position(uOffset + chromaRow * uStride)
+            data.put(rows.u, 0, chromaWidth)
+            data.position(vOffset + chromaRow * vStride)
+            data.put(rows.v, 0, chromaWidth)
+        }
+    }
+
+    private fun luma(pixels: ByteArray, rowOffset: Int, row: ByteArray) {
+        var offset = rowOffset
+        for (x in 0 until width) {
+            val b = pixels[offset].toInt() and 0xff
+            val g = pixels[offset + 1].toInt() and 0xff
+            val r = pixels[offset + 2].toInt() and 0xff
+            row[x] = (((66 * r + 129 * g + 25 * b + 128) shr 8) + 16).toByte()
+            offset += 3
+        }
+    }
+
+    private class Scratch(width: Int, chromaWidth: Int) {
+        val top = ByteArray(width)
+        val bottom = ByteArray(width)
+        val u = ByteArray(chromaWidth)
+        val v = ByteArray(chromaWidth)
+    }
+
+    companion object {
+        private val threads = EngineConfig.encodeConvertThreads.coerceAtLeast(1)
+
+        // shared by every render, idle unless conversion is split over more than one thread
+        private val workers: ForkJoinPool? = if (threads > 1) ForkJoinPool(threads - 1) else null
+    }
+}
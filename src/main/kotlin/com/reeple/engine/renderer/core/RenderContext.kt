@@ -13,6 +13,8 @@ class RenderContext(parts: Collection<Part>) {
         private set
     var hooks: HooksDto
         private set
+    var tenant: String? = null
+        private set
 
     lateinit var audioUrl: String
     lateinit var meta: Meta
@@ -37,12 +39,12 @@ class RenderContext(parts: Collection<Part>) {
 
     init {
         try {
-            val modelRaw = readBytes(parts.find { it -> it.name.substringBefore("_") == "model" })
-            val model = Gson().fromJson(String(modelRaw), RenderModelDto().javaClass)
+            val model = readModel(parts)
 
             if (model !== null) {
                 this.id = model.id!!
                 this.hooks = model.hooks!!
+                this.tenant = model.tenant
 
                 model.animations?.forEach { a -> this.animations[a.id!!] = a }
                 model.images?.forEach { i ->
@@ -81,4 +83,11 @@ class RenderContext(parts: Collection<Part>) {
             throw Exception("Missing files or invalid render model:  ${e.message}")
         }
     }
+
+    companion object {
+        fun readModel(parts: Collection<Part>): RenderModelDto? {
+            val modelRaw = readBytes(parts.find { it -> it.name.substringBefore("_") == "model" })
+            return Gson().fromJson(String(modelRaw), RenderModelDto().javaClass)
+        }
+    }
 }
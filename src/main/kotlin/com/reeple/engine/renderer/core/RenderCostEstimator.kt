@@ -0,0 +1,110 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.types.BackgroundType
+import com.reeple.engine.renderer.types.RenderModelDto
+import javax.servlet.http.Part
+
+class RenderCost(val cpuSeconds: Double, val heapBytes: Long, val trackLength: Double) {
+    companion object {
+        val NONE = RenderCost(0.0, 0, 0.0)
+    }
+}
+
+/**
+ * Projects what a render will cost from its model and the size of the uploaded audio, before anything is
+ * written to disk. Per-frame costs are rough figures for a 1920x1080 frame and scale with pixel count.
+ */
+sealed class RenderCostEstimator {
+
+    companion object {
+        private const val REFERENCE_PIXELS = 1920.0 * 1080.0
+
+        // milliseconds per 1080p frame
+        private const val COMPOSE_MS = 6.0
+        private const val WAVEFORM_MS = 4.0
+        private const val EFFECT_MS = 6.0
+        private const val ANIMATED_LAYER_MS = 10.0
+        private const val VIDEO_BACKGROUND_MS = 12.0
+        private const val GIF_BACKGROUND_MS = 4.0
+        private const val ENCODE_MS = 15.0
+
+        // audio conversion and analysis, seconds per second of track
+        private const val AUDIO_COST = 0.05
+
+        private const val BASE_HEAP = 64L * 1024 * 1024
+        private const val ANALYSIS_BYTES_PER_FRAME = 160L
+
+        fun estimate(model: RenderModelDto, parts: Collection<Part>): RenderCost {
+            val video = model.meta?.video
+            val width = video?.width ?: 1920.0
+            val height = video?.height ?: 1080.0
+            val optimised = video?.optimisation == true
+
+            val fps = if (optimised) 24.0 else 30.0
+            val trackLength = estimateTrackLength(parts)
+            val frames = trackLength * fps
+            // optimised renders compose and encode at half width and height
+            val scale = (width * height) / REFERENCE_PIXELS * (if (optimised) 0.25 else 1.0)
+
+            val animatedLayers = (model.images?.count { it.animated == true } ?: 0) +
+                    (model.shapes?.count { it.animated == true } ?: 0) +
+                    (model.texts?.count { it.animated == true } ?: 0)
+            val background = when (model.background?.type) {
+                BackgroundType.VIDEO -> VIDEO_BACKGROUND_MS
+                BackgroundType.GIF -> GIF_BACKGROUND_MS
+                else -> 0.0
+            }
+
+            val composeMs = COMPOSE_MS +
+                    WAVEFORM_MS * (model.waveforms?.size ?: 0) +
+                    EFFECT_MS * (model.effects?.size ?: 0) +
+                    ANIMATED_LAYER_MS * animatedLayers +
+                    background
+            val cpuSeconds = frames * scale * (composeMs + ENCODE_MS) / 1000.0 + trackLength * AUDIO_COST
+
+            val frameScale = if (optimised) 0.5 else 1.0
+            return RenderCost(cpuSeconds, estimateHeap(width * frameScale, height * frameScale, frames, model.background?.type), trackLength)
+        }
+
+        // composed frame buffers in flight, the static layer image, background frames and their loop cache, and the analysis arrays
+        private fun estimateHeap(width: Double, height: Double, frames: Double, background: BackgroundType?): Long {
+            val frameBytes = (width * height * 3).toLong()
+            val threads = EngineConfig.renderThreads.coerceAtLeast(1)
+            val segmented = EngineConfig.encoderSegmentFrames > 0
+            // a segment worker holds its own frame and encoder buffer, and its own background grabber
+            val grabbers = if (segmented) EngineConfig.taskThreads else 1
+            val buffered = when {
+                segmented -> EngineConfig.taskThreads * 2
+                threads > 1 -> threads * (EngineConfig.renderChunkFrames.coerceAtLeast(1) + 1)
+                else -> EngineConfig.pipelineDepth.coerceAtLeast(0) + 1
+            }
+            val window = if (segmented) grabbers else buffered + EngineConfig.pipelineDepth.coerceAtLeast(0)
+            val backgroundFrames = when (background) {
+                BackgroundType.VIDEO -> window + grabbers * EngineConfig.backgroundDecodeAhead.coerceAtLeast(0)
+                null -> 0
+                else -> window
+            }
+
+            val loopCache = if (background == BackgroundType.VIDEO) EngineConfig.backgroundCacheMb.coerceAtLeast(0) * 1024 * 1024 else 0L
+
+            return BASE_HEAP +
+                    frameBytes * (buffered + backgroundFrames) +
+                    loopCache +
+                    (width * height * 4).toLong() +
+                    (frames * ANALYSIS_BYTES_PER_FRAME).toLong()
+        }
+
+        // the track is not decoded yet, so its length is derived from the upload size and a typical bitrate
+        private fun estimateTrackLength(parts: Collection<Part>): Double {
+            val audio = parts.find { it.contentType?.contains("audio") == true || it.name == "audio" } ?: return 0.0
+            val extension = audio.submittedFileName?.substringAfterLast(".", "")?.lowercase() ?: ""
+            val type = audio.contentType ?: ""
+            val bytesPerSecond = when {
+                extension == "wav" || "wav" in type -> 176400.0
+                extension == "flac" || "flac" in type -> 88200.0
+                else -> 16000.0
+            }
+            return audio.size / bytesPerSecond
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.reeple.engine.renderer.core
+
+import kotlin.math.ceil
+import kotlin.math.roundToLong
+
+/**
+ * Places the packets of segments encoded one after another on the output timeline. A segment is shifted
+ * to where its frames belong, or later when its first decode timestamp would not follow the previous
+ * segment's last one, as with B-frames where decoding starts ahead of the first presented frame. Time
+ * bases are those of the segment streams, so segments may differ in them.
+ */
+class SegmentTimeline(private val fps: Double, private val segmentFrames: Int) {
+
+    // the earliest time in seconds the next packet may decode at
+    private var end = 0.0
+
+    // offset in [timeBase] units for every timestamp of [segment], whose first packet decodes at [firstDts]
+    fun offset(segment: Int, timeBase: Double, firstDts: Long?): Long {
+        val nominal = (segment * segmentFrames / fps / timeBase).roundToLong()
+        if (firstDts == null) return nominal
+        val earliest = ceil(end / timeBase - EPSILON).toLong()
+        return maxOf(nominal, earliest - firstDts)
+    }
+
+    // records a copied packet by its shifted decode timestamp, a missing duration counts as one frame
+    fun written(dts: Long, duration: Long, timeBase: Double) {
+        val length = if (duration > 0) duration * timeBase else 1 / fps
+        end = maxOf(end, dts * timeBase + length)
+    }
+
+    companion object {
+        // keeps a boundary that lands on a tick from rounding up to the next one
+        private const val EPSILON = 1e-6
+    }
+}
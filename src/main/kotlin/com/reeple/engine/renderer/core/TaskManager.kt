@@ -1,47 +1,212 @@
 package com.reeple.engine.renderer.core
 
-import com.reeple.engine.renderer.utils.bootstrapApplication
-import com.reeple.engine.renderer.utils.external.classes.CopyOnWriteLinkedHashMap
+import com.reeple.engine.renderer.types.SchedulerStatus
+import com.reeple.engine.renderer.types.TaskStatus
 import kotlinx.coroutines.CoroutineScope
-import kotlinx.coroutines.Dispatchers
-import kotlinx.coroutines.delay
+import kotlinx.coroutines.asCoroutineDispatcher
 import kotlinx.coroutines.launch
+import java.util.PriorityQueue
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import kotlin.math.ceil
 
 sealed class TaskManager {
 
     companion object {
 
-        private const val MAX = 2
-        private var tasks = CopyOnWriteLinkedHashMap<String, Task>()
-            .also {
-            CoroutineScope(Dispatchers.Default).launch {
-
-                while (true) {
-                    delay(10)
-                    val parent = launch {
-                        var count = 0
-                        for (task in it) {
-                            launch { task.value.render(); it.remove(task.key) }
-                            count++
-                            if (count >= MAX)
-                                break
-                        }
-                    }
-                    parent.join()
+        private const val HISTORY = 50
+
+        private val slots = computeSlots()
+        private val tenantPriorities = parseTenants(EngineConfig.schedulerTenants)
+        private val heapBudget = Runtime.getRuntime().maxMemory() / 100 * EngineConfig.admissionHeapPercent
+        private val cores = Runtime.getRuntime().availableProcessors()
+
+        private val lock = Any()
+        private val queue = PriorityQueue(compareByDescending<ScheduledTask> { it.priority }.thenBy { it.sequence })
+        private val finished = ArrayDeque<ScheduledTask>()
+        private var sequence = 0L
+        private var running = 0
+        private var runningHeap = 0L
+
+        // costs of admitted renders whose uploads are still being stored
+        private val reservations = HashMap<String, RenderCost>()
+
+        // queued and running tasks, a task stops rendering once it is removed from here
+        private val tasks = ConcurrentHashMap<String, ScheduledTask>()
+        private val scope = CoroutineScope(Executors.newCachedThreadPool().asCoroutineDispatcher())
+
+        init {
+            println("Task scheduler running $slots concurrent tasks")
+        }
+
+        /**
+         * Admits a render of the given [cost] before its uploads are stored, throws an [AdmissionRejectedException]
+         * when the queue is full or the render would push queued work or heap over budget. An idle scheduler
+         * always admits, so oversized renders still run on their own.
+         */
+        fun reserve(id: String, cost: RenderCost) {
+            synchronized(lock) {
+                if (tasks.containsKey(id) || reservations.containsKey(id))
+                    throw IllegalStateException("task with id:$id already exists")
+                if (queue.size + reservations.size >= EngineConfig.schedulerQueueCapacity)
+                    throw AdmissionRejectedException("render queue is full", AdmissionRejectedException.Reason.QUEUE, drainTime(0.0))
+
+                val idle = running == 0 && queue.isEmpty() && reservations.isEmpty()
+                if (!idle) {
+                    val outstanding = outstandingCpu()
+                    if (outstanding + cost.cpuSeconds > EngineConfig.admissionCpuBudget)
+                        throw AdmissionRejectedException(
+                            "render backlog of ${outstanding.toLong()} cpu-seconds is over budget",
+                            AdmissionRejectedException.Reason.CPU,
+                            drainTime(outstanding + cost.cpuSeconds - EngineConfig.admissionCpuBudget)
+                        )
+                    if (cost.heapBytes > heapBudget)
+                        throw AdmissionRejectedException(
+                            "render needs ${cost.heapBytes / (1024 * 1024)}MB heap and can only run alone",
+                            AdmissionRejectedException.Reason.HEAP,
+                            drainTime(outstanding)
+                        )
                 }
+                reservations[id] = cost
+            }
+        }
+
+        fun release(id: String) {
+            synchronized(lock) {
+                reservations.remove(id)
             }
         }
 
         fun new(context: RenderContext) {
-            tasks[context.id] = Task(context)
+            // creates the output file, so it is built before other submissions and status calls are held up
+            val task = Task(context)
+            synchronized(lock) {
+                val cost = reservations.remove(context.id) ?: RenderCost.NONE
+                if (tasks.containsKey(context.id))
+                    throw IllegalStateException("task with id:${context.id} already exists")
+
+                val priority = tenantPriorities[context.tenant] ?: 0
+                val scheduled = ScheduledTask(context.id, context.tenant, priority, sequence++, cost, task)
+                tasks[context.id] = scheduled
+                queue.add(scheduled)
+            }
+            dispatch()
         }
 
         fun cancel(id: String) {
-            tasks.remove(id)
+            synchronized(lock) {
+                tasks.remove(id)?.let { if (queue.remove(it)) retire(it) }
+            }
         }
 
         fun isRunning(id: String): Boolean {
-           return  tasks[id] !== null;
+            return tasks.containsKey(id)
+        }
+
+        fun status(): SchedulerStatus {
+            synchronized(lock) {
+                val entries = queue.sortedWith(queue.comparator()) +
+                        tasks.values.filter { it.startedAt != null } +
+                        finished.reversed()
+                return SchedulerStatus(slots, running, queue.size, entries.map { it.toStatus() })
+            }
+        }
+
+        // starts queued tasks for as long as slots and heap are free, called on submission and whenever a task ends
+        private fun dispatch() {
+            synchronized(lock) {
+                while (running < slots) {
+                    val next = queue.peek() ?: return
+                    if (running > 0 && runningHeap + next.cost.heapBytes > heapBudget) return
+
+                    queue.poll()
+                    running++
+                    runningHeap += next.cost.heapBytes
+                    next.startedAt = System.currentTimeMillis()
+                    scope.launch { execute(next) }
+                }
+            }
+        }
+
+        private suspend fun execute(scheduled: ScheduledTask) {
+            try {
+                scheduled.task.render()
+            } finally {
+                synchronized(lock) {
+                    running--
+                    runningHeap -= scheduled.cost.heapBytes
+                    tasks.remove(scheduled.id, scheduled)
+                    retire(scheduled)
+                }
+                dispatch()
+            }
+        }
+
+        private fun retire(scheduled: ScheduledTask) {
+            scheduled.finishedAt = System.currentTimeMillis()
+            finished.addLast(scheduled)
+            if (finished.size > HISTORY) finished.removeFirst()
+        }
+
+        // estimated cpu-seconds left in queued, running and reserved renders
+        private fun outstandingCpu(): Double {
+            val now = System.currentTimeMillis()
+            val threads = EngineConfig.taskThreads
+            return queue.sumOf { it.cost.cpuSeconds } +
+                    reservations.values.sumOf { it.cpuSeconds } +
+                    tasks.values.filter { it.startedAt != null }.sumOf {
+                        (it.cost.cpuSeconds - (now - it.startedAt!!) / 1000.0 * threads).coerceAtLeast(0.0)
+                    }
+        }
+
+        // seconds until the given amount of work has drained, at least a second
+        private fun drainTime(cpuSeconds: Double): Long {
+            val parallelism = minOf(cores, slots * EngineConfig.taskThreads)
+            return ceil(cpuSeconds / parallelism).toLong().coerceAtLeast(1)
+        }
+
+        private fun computeSlots(): Int {
+            if (EngineConfig.schedulerConcurrency > 0) return EngineConfig.schedulerConcurrency
+
+            val byCores = Runtime.getRuntime().availableProcessors() / EngineConfig.taskThreads
+            val byHeap = Runtime.getRuntime().maxMemory() / (EngineConfig.schedulerTaskHeapMb.coerceAtLeast(1) * 1024 * 1024)
+            return minOf(byCores.toLong(), byHeap).toInt().coerceAtLeast(1)
+        }
+
+        private fun parseTenants(value: String): Map<String, Int> {
+            return value.split(",")
+                .mapNotNull { entry ->
+                    val tenant = entry.substringBefore(":").trim()
+                    val priority = entry.substringAfter(":", "").trim().toIntOrNull()
+                    if (tenant.isNotEmpty() && priority != null) tenant to priority else null
+                }
+                .toMap()
+        }
+    }
+
+    private class ScheduledTask(
+        val id: String,
+        val tenant: String?,
+        val priority: Int,
+        val sequence: Long,
+        val cost: RenderCost,
+        val task: Task
+    ) {
+        val queuedAt = System.currentTimeMillis()
+        var startedAt: Long? = null
+        var finishedAt: Long? = null
+
+        fun toStatus(): TaskStatus {
+            val now = System.currentTimeMillis()
+            val state = when {
+                finishedAt != null && startedAt == null -> "CANCELED"
+                finishedAt != null -> "FINISHED"
+                startedAt != null -> "RUNNING"
+                else -> "QUEUED"
+            }
+            val waitTime = (startedAt ?: finishedAt ?: now) - queuedAt
+            val runTime = startedAt?.let { (finishedAt ?: now) - it }
+            return TaskStatus(id, tenant, priority, state, waitTime, runTime)
         }
     }
-}
\ No newline at end of file
+}
@@ -1,95 +1,279 @@
 package com.reeple.engine.renderer.core
 
 import com.reeple.engine.renderer.components.*
-import com.reeple.engine.renderer.types.WaveformVariant
+import com.reeple.engine.renderer.types.AssembledOutput
+import com.reeple.engine.renderer.types.AudioOutput
+import com.reeple.engine.renderer.types.VideoEncoder
 import com.reeple.engine.renderer.utils.applyQualityRenderingHints
 import com.reeple.engine.renderer.utils.createStaticImage
-import com.reeple.engine.renderer.utils.fastResizeImage
-import com.reeple.engine.renderer.utils.renderTrackProgress
-import com.xuggle.mediatool.IMediaWriter
+import com.xuggle.xuggler.Global
+import com.xuggle.xuggler.IContainer
+import com.xuggle.xuggler.IPacket
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import java.awt.Graphics2D
 import java.awt.image.BufferedImage
+import java.io.File
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Executors
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import kotlin.math.min
 import kotlin.math.roundToInt
 import kotlin.math.roundToLong
 
 
 class VideoRenderer(
-    private val freqAmpData: ArrayList<FloatArray>,
-    private val sigAmpData: ArrayList<FloatArray>,
+    private val analyzer: AudioAnalyzer,
+    private val muxer: AudioMuxer,
     private val context: RenderContext,
-    private val writer: IMediaWriter,
-    private val hookService: HooksManager
+    private val output: AudioOutput,
+    private val hookService: HooksManager,
+    private val segmentEncoder: (Int) -> VideoEncoder
 ) {
 
     private var frameGrabber: FrameGrabber? = null
-    private var animator: LayerAnimator? = null
+
+    // frames are encoded by the output itself, unless segment encoders are assembled into it
+    private val encoder = output as? VideoEncoder
 
     private val w = context.meta.video.width!!.toInt()
     private val h = context.meta.video.height!!.toInt()
-    private val bgX = context.background.posX!!
-    private val bgY = context.background.posY!!
+
+    // frames are composed at output size, drawing is scaled down by the compositor
+    private val scale = FrameCompositor.renderScale(context)
+    private val frameWidth = (w * scale).toInt()
+    private val frameHeight = (h * scale).toInt()
 
     private var fps = 30.0
     private val startTime = System.currentTimeMillis()
-    private val totalPoints = freqAmpData.size
-    private var index = 1
+    private val totalPoints = analyzer.freqAmpData.size
     private var progress = 0
-    private var currentPoint = 0
 
-    private val staticImage = createStaticImage(context)
-    private val alphaBuffer = BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR)
-    private val g2d: Graphics2D = alphaBuffer.createGraphics().also { applyQualityRenderingHints(it) }
-    private val plotters = WaveformPlotter().getPlotters(context)
-    private val effectsManager = EffectsRenderer(context)
+    private val threads = EngineConfig.renderThreads.coerceAtLeast(1)
+    private val chunk = EngineConfig.renderChunkFrames.coerceAtLeast(1)
+    private val pipelineDepth = EngineConfig.pipelineDepth.coerceAtLeast(0)
+    private val segmentFrames = EngineConfig.encoderSegmentFrames.coerceAtLeast(0)
+    private val segmentThreads = EngineConfig.taskThreads
+    private val segmentCount = if (segmentFrames > 0) (totalPoints + segmentFrames - 1) / segmentFrames else 0
+    private val framesRendered = AtomicInteger()
+    private val staticImage = FrameCompositor.scaleStatic(createStaticImage(context), frameWidth, frameHeight)
+    private var pipeline: FramePipeline? = null
+    private var muxerStarted = false
 
     init {
         if (context.meta.video.optimisation!!) fps = 24.0
-        if (context.bgIsDefined) frameGrabber = FrameGrabber(context, fps.toInt())
-        if (context.animatedLayers.isNotEmpty()) animator = LayerAnimator(context)
+        if (context.bgIsDefined) frameGrabber = FrameGrabber(context, fps.toInt(), scale)
     }
 
     suspend fun start() {
         hookService.updateStatus("RENDERING")
-        while (TaskManager.isRunning(context.id)) {
+        var encoderIdle = true
+        try {
+            if (segmentFrames > 0) {
+                renderSegments()
+                if (TaskManager.isRunning(context.id)) assembleSegments(output as AssembledOutput)
+            } else {
+                muxer.start()
+                if (pipelineDepth > 0)
+                    pipeline = FramePipeline(encoder!!, fps, pipelineDepth) { frameEncoded(it) }
+                if (threads > 1 && totalPoints > chunk) renderParallel() else renderSerial()
+                pipeline?.finish()
+            }
+            if (TaskManager.isRunning(context.id)) {
+                muxer.finish()
+                analyzer.finish()
+            } else {
+                muxer.abort()
+                analyzer.abort()
+            }
+        } catch (e: Exception) {
+            encoderIdle = pipeline?.abort() ?: true
+            muxer.abort()
+            analyzer.abort()
+            throw e
+        } finally {
+            // a failed render must still stop the decode-ahead thread and free the native encoder
+            frameGrabber?.close()
+            // closing under a stage stuck in a native call would crash the process, leaking is the lesser harm
+            if (encoderIdle) output.close() else println("task with id:${context.id} left its encoder open, a pipeline stage did not stop")
+        }
+        cleanup()
+    }
 
-            if (currentPoint < totalPoints) {
+    private suspend fun renderSerial() {
+        val compositor = createCompositor()
+        val lane = RenderLane(compositor, pipelineDepth + 1, frameWidth, frameHeight)
+        var currentPoint = 0
 
-                clear()
-                drawGrabbed()
-                drawDynamic()
-                drawStatic()
-                drawWaveforms()
-                drawTracker()
-                writeToOutput()
-                increment()
-                sleep()
+        while (TaskManager.isRunning(context.id) && currentPoint < totalPoints) {
+            val frame = lane.free.take()
+            compositor.compose(currentPoint, frame.g2d)
+            output(frame, currentPoint, lane.free)
+            currentPoint++
+            sleep()
+        }
+    }
+
+    /**
+     * Splits the timeline into chunks of [chunk] frames dealt round-robin to [threads] workers. Each worker
+     * composes into its own ring of buffers while this thread drains the rings in frame order into the writer.
+     */
+    private fun renderParallel() {
+        println("task with id:${context.id} rendering on $threads threads")
+        val lanes = List(threads) { RenderLane(createCompositor(), chunk + 1, frameWidth, frameHeight) }
+        val failure = AtomicReference<Throwable>()
+        val stopped = AtomicBoolean(false)
+        val pool = Executors.newFixedThreadPool(threads)
 
-            } else break
+        lanes.forEachIndexed { laneIndex, lane ->
+            pool.execute {
+                try {
+                    var chunkStart = laneIndex * chunk
+                    while (chunkStart < totalPoints && !stopped.get()) {
+                        for (currentPoint in chunkStart until min(chunkStart + chunk, totalPoints)) {
+                            val frame = lane.free.take()
+                            lane.compositor.compose(currentPoint, frame.g2d)
+                            lane.ready.put(frame)
+                        }
+                        chunkStart += threads * chunk
+                    }
+                } catch (e: InterruptedException) {
+                    // render was stopped
+                } catch (e: Throwable) {
+                    failure.compareAndSet(null, e)
+                }
+            }
+        }
+
+        try {
+            for (currentPoint in 0 until totalPoints) {
+                if (!TaskManager.isRunning(context.id)) break
+                val lane = lanes[(currentPoint / chunk) % threads]
+                output(takeReady(lane, failure), currentPoint, lane.free)
+            }
+        } finally {
+            stopped.set(true)
+            pool.shutdownNow()
+            pool.awaitTermination(10, TimeUnit.SECONDS)
         }
-        cleanup()
     }
 
+    /**
+     * Splits the timeline into segments of [segmentFrames] frames that [segmentThreads] workers compose and
+     * encode into files of their own. Each segment opens a fresh encoder and so starts on a keyframe, which
+     * lets [assembleSegments] join them without encoding again.
+     */
+    private fun renderSegments() {
+        val workers = segmentThreads.coerceAtMost(segmentCount).coerceAtLeast(1)
+        println("task with id:${context.id} encoding $segmentCount segments on $workers threads")
+        val next = AtomicInteger()
+        val failure = AtomicReference<Throwable>()
+        val pool = Executors.newFixedThreadPool(workers)
 
+        repeat(workers) {
+            pool.execute {
+                try {
+                    // segments are claimed in order, so each worker's grabber and compositor only move forward
+                    val grabber = if (context.bgIsDefined) FrameGrabber(context, fps.toInt(), scale, EngineConfig.backgroundCacheMb / workers) else null
+                    val compositor = FrameCompositor(context, analyzer.freqAmpData, analyzer.sigAmpData, staticImage, grabber)
+                    val frame = RenderFrame(frameWidth, frameHeight)
+                    try {
+                        while (failure.get() == null && TaskManager.isRunning(context.id)) {
+                            val segment = next.getAndIncrement()
+                            if (segment >= segmentCount) break
+                            renderSegment(segment, compositor, grabber, frame)
+                        }
+                    } finally {
+                        grabber?.close()
+                    }
+                } catch (e: Throwable) {
+                    failure.compareAndSet(null, e)
+                }
+            }
+        }
 
-    private fun clear() {
-        g2d.clearRect(0, 0, w, h)
+        pool.shutdown()
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (failure.get() != null) pool.shutdownNow()
+        }
+        failure.get()?.let { throw Exception("Segment worker failed: ${it.message}", it) }
     }
 
-    private suspend fun sleep() {
-        withContext(Dispatchers.IO) { Thread.sleep(0) }
+    private fun renderSegment(segment: Int, compositor: FrameCompositor, grabber: FrameGrabber?, frame: RenderFrame) {
+        val start = segment * segmentFrames
+        val end = min(start + segmentFrames, totalPoints)
+        grabber?.seek(start)
+
+        val segmentEncoder = segmentEncoder(segment)
+        try {
+            for (currentPoint in start until end) {
+                if (!TaskManager.isRunning(context.id)) break
+                compositor.compose(currentPoint, frame.g2d)
+                val timeStamp = ((1000000000.0 / fps) * (currentPoint - start + 1)).roundToLong()
+                segmentEncoder.encode(segmentEncoder.prepare(frame.image, timeStamp, TimeUnit.NANOSECONDS))
+                grabber?.release(currentPoint + 1)
+                trackProgress(framesRendered.incrementAndGet())
+            }
+        } finally {
+            segmentEncoder.close()
+        }
     }
 
-    private fun increment() {
-        currentPoint++
-        index++
+    // copies every segment's packets into the output in timeline order, shifted onto the output timeline
+    private fun assembleSegments(output: AssembledOutput) {
+        val timeline = SegmentTimeline(fps, segmentFrames)
+        for (segment in 0 until segmentCount) {
+            val url = FileManager.getSegmentFile(context.id, segment)
+            val container = IContainer.make()
+            if (container.open(url, IContainer.Type.READ, null) < 0) throw Exception("could not open segment $segment")
+            try {
+                val stream = container.getStream(0)
+                val timeBase = stream.timeBase.double
+                var offset: Long? = null
+                val packet = IPacket.make()
+                while (container.readNextPacket(packet) >= 0) {
+                    val firstDts = if (packet.dts != Global.NO_PTS) packet.dts else null
+                    val shift = offset ?: timeline.offset(segment, timeBase, firstDts).also { offset = it }
+                    if (packet.pts != Global.NO_PTS) packet.pts = packet.pts + shift
+                    if (packet.dts != Global.NO_PTS) {
+                        packet.dts = packet.dts + shift
+                        timeline.written(packet.dts, packet.duration, timeBase)
+                    }
+                    output.copyVideo(packet, stream.streamCoder)
+                    // the first copied packet adds the video stream, audio may only follow once the header is out
+                    if (!muxerStarted) {
+                        muxer.start()
+                        muxerStarted = true
+                    }
+                    if (packet.pts != Global.NO_PTS) muxer.advance((packet.pts * timeBase * fps).toInt())
+                }
+            } finally {
+                container.close()
+            }
+            File(url).delete()
+        }
+    }
+
+    private fun takeReady(lane: RenderLane, failure: AtomicReference<Throwable>): RenderFrame {
+        while (true) {
+            failure.get()?.let { throw Exception("Render worker failed: ${it.message}", it) }
+            lane.ready.poll(100, TimeUnit.MILLISECONDS)?.let { return it }
+        }
+    }
+
+    private fun createCompositor(): FrameCompositor {
+        return FrameCompositor(context, analyzer.freqAmpData, analyzer.sigAmpData, staticImage, frameGrabber)
+    }
+
+    private suspend fun sleep() {
+        withContext(Dispatchers.IO) { Thread.sleep(0) }
     }
 
     private fun cleanup() {
-        writer.close()
-        writer.flush()
         Runtime.getRuntime().gc()
         System.gc()
         println("Render completed in ${(System.currentTimeMillis() - startTime) / 1000.0} secs")
@@ -97,57 +281,52 @@ class VideoRenderer(
         hookService.uploadVideo()
     }
 
-    private fun writeToOutput() {
-        if (context.meta.video.optimisation!!) {
-            writer.encodeVideo(
-                0,
-                fastResizeImage(alphaBuffer, 0.5),
-                ((1000000000.0 / fps) * index).roundToLong(),
-                TimeUnit.NANOSECONDS
-            )
+    // hands a composed frame to the encode pipeline, or encodes it in place; the frame goes back to owner once consumed
+    private fun output(frame: RenderFrame, currentPoint: Int, owner: BlockingQueue<RenderFrame>) {
+        val pipeline = pipeline
+        if (pipeline != null) {
+            pipeline.submit(frame.image, currentPoint) { owner.put(frame) }
         } else {
-            writer.encodeVideo(
-                0,
-                alphaBuffer,
-                ((1000000000.0 / fps) * index).roundToLong(),
-                TimeUnit.NANOSECONDS
-            )
+            writeToOutput(frame.image, currentPoint)
+            owner.put(frame)
         }
-        alphaBuffer.flush()
-    }
-
-    // Draw functions
-    private fun drawStatic() {
-        g2d.drawRenderedImage(staticImage, null)
     }
 
-    private fun drawDynamic() {
-        animator?.render(g2d)
-        effectsManager.render(freqAmpData, currentPoint, g2d)
+    private fun writeToOutput(image: BufferedImage, currentPoint: Int) {
+        val timeStamp = ((1000000000.0 / fps) * (currentPoint + 1)).roundToLong()
+        val encoder = encoder!!
+        encoder.encode(encoder.prepare(image, timeStamp, TimeUnit.NANOSECONDS))
+        image.flush()
+        frameEncoded(currentPoint)
     }
 
-    private fun drawGrabbed() {
-        frameGrabber?.let { g2d.drawImage(it.grabNext(), null, bgX, bgY) }
+    private fun frameEncoded(currentPoint: Int) {
+        frameGrabber?.release(currentPoint + 1)
+        muxer.advance(currentPoint + 1)
+        trackProgress(currentPoint)
     }
 
-    private fun drawWaveforms() {
-        for (plotter in plotters) {
-            if (plotter.waveform.type == WaveformVariant.SAD)
-                plotter.plot(sigAmpData, currentPoint, g2d)
-            else
-                plotter.plot(freqAmpData, currentPoint, g2d)
-        }
-    }
-
-    private fun drawTracker() {
+    @Synchronized
+    private fun trackProgress(currentPoint: Int) {
         val trackProgress = (currentPoint / totalPoints.toDouble()) * 100
 
         if (trackProgress.roundToInt() != progress) {
             println("task with id:${context.id} at $progress%")
             progress = trackProgress.roundToInt()
         }
-        if (context.meta.tracker.display!!)
-            renderTrackProgress(trackProgress, g2d, context.meta.tracker)
     }
 
+    private class RenderFrame(w: Int, h: Int) {
+        val image = BufferedImage(w, h, BufferedImage.TYPE_3BYTE_BGR)
+        val g2d: Graphics2D = image.createGraphics().also { applyQualityRenderingHints(it) }
+    }
+
+    private class RenderLane(val compositor: FrameCompositor, capacity: Int, w: Int, h: Int) {
+        val free = ArrayBlockingQueue<RenderFrame>(capacity)
+        val ready = ArrayBlockingQueue<RenderFrame>(capacity)
+
+        init {
+            repeat(capacity) { free.add(RenderFrame(w, h)) }
+        }
+    }
 }
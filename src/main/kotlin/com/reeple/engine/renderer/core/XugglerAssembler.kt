@@ -0,0 +1,39 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.types.AssembledOutput
+import com.reeple.engine.renderer.utils.external.classes.MediaWriterMod
+import com.xuggle.xuggler.IAudioSamples
+import com.xuggle.xuggler.IPacket
+import com.xuggle.xuggler.IStreamCoder
+
+/**
+ * The output of a task whose frames are encoded in segments. It takes no frames: its video stream is
+ * created from the first copied packet's source, audio is copied or encoded as by [XugglerEncoder].
+ */
+class XugglerAssembler(url: String, audioUrl: String) : AssembledOutput {
+
+    private val writer = MediaWriterMod(url)
+    private var videoCopied = false
+
+    override val copiesAudio = XugglerEncoder.addAudioStream(writer, audioUrl)
+
+    override fun encodeAudio(samples: IAudioSamples) {
+        writer.encodeAudio(XugglerEncoder.AUDIO, samples)
+    }
+
+    override fun copyAudio(packet: IPacket) {
+        writer.copyPacket(XugglerEncoder.AUDIO, packet)
+    }
+
+    override fun copyVideo(packet: IPacket, source: IStreamCoder) {
+        synchronized(this) {
+            if (!videoCopied) writer.addStreamCopy(XugglerEncoder.VIDEO, XugglerEncoder.VIDEO, source)
+            videoCopied = true
+        }
+        writer.copyPacket(XugglerEncoder.VIDEO, packet)
+    }
+
+    override fun close() {
+        writer.close()
+    }
+}
@@ -0,0 +1,92 @@
+package com.reeple.engine.renderer.core
+
+import com.reeple.engine.renderer.components.AudioConverter
+import com.reeple.engine.renderer.components.AudioMuxer
+import com.reeple.engine.renderer.types.EncoderFrame
+import com.reeple.engine.renderer.types.PacketSink
+import com.reeple.engine.renderer.types.VideoEncoder
+import com.reeple.engine.renderer.utils.external.classes.MediaWriterMod
+import com.xuggle.xuggler.IAudioSamples
+import com.xuggle.xuggler.ICodec
+import com.xuggle.xuggler.IPacket
+import com.xuggle.xuggler.IRational
+import com.xuggle.xuggler.IVideoPicture
+import java.awt.image.BufferedImage
+import java.util.concurrent.TimeUnit
+
+/**
+ * Encodes through Xuggler's bundled FFmpeg with [MediaWriterMod]. Frames are converted into pictures
+ * from a [PicturePool] holding [frames] pictures, compatible audio is copied into the container as it
+ * is.
+ */
+class XugglerEncoder(
+    url: String,
+    width: Int,
+    height: Int,
+    fps: Double,
+    bitrate: Int,
+    audioUrl: String?,
+    frames: Int
+) : VideoEncoder, PacketSink {
+
+    private val writer = MediaWriterMod(url)
+    private val pictures: PicturePool
+
+    override val copiesAudio: Boolean
+
+    init {
+        writer.addVideoStreamWithBitRate(VIDEO, VIDEO, ICodec.ID.CODEC_ID_H264, IRational.make(fps), bitrate, width, height)
+        if (EngineConfig.encoderThreads > 0) setProperty("threads", EngineConfig.encoderThreads.toString())
+
+        copiesAudio = audioUrl != null && addAudioStream(writer, audioUrl)
+        pictures = writer.createPicturePool(VIDEO, frames)
+    }
+
+    override fun prepare(image: BufferedImage, timeStamp: Long, timeUnit: TimeUnit): EncoderFrame {
+        val slot = pictures.acquire()
+        if (pictures.fill(slot, image, timeStamp, timeUnit)) return Frame(slot.picture, slot)
+        pictures.release(slot)
+        return Frame(writer.toPicture(VIDEO, image, timeStamp, timeUnit), null)
+    }
+
+    override fun encode(frame: EncoderFrame) {
+        frame as Frame
+        try {
+            writer.encodeVideo(VIDEO, frame.picture)
+        } finally {
+            if (frame.slot != null) pictures.release(frame.slot) else frame.picture.delete()
+        }
+    }
+
+    override fun encodeAudio(samples: IAudioSamples) {
+        writer.encodeAudio(AUDIO, samples)
+    }
+
+    override fun copyAudio(packet: IPacket) {
+        writer.copyPacket(AUDIO, packet)
+    }
+
+    override fun close() {
+        writer.close()
+        pictures.close()
+    }
+
+    // options reach the coder through its AVCodecContext options, x264's private ones are not searched
+    private fun setProperty(name: String, value: String) {
+        if (writer.setStreamProperty(VIDEO, name, value) < 0) println("Encoder ignored $name=$value")
+    }
+
+    private class Frame(val picture: IVideoPicture, val slot: PicturePool.Slot?) : EncoderFrame
+
+    companion object {
+        const val VIDEO = 0
+        const val AUDIO = 1
+
+        // adds the track's stream to [writer], returns true when the upload's packets are copied into it
+        fun addAudioStream(writer: MediaWriterMod, audioUrl: String): Boolean {
+            if (AudioMuxer.copySource(audioUrl) { writer.addStreamCopy(AUDIO, AUDIO, it) }) return true
+            writer.addAudioStream(AUDIO, AUDIO, AudioConverter.CHANNELS, AudioConverter.SAMPLE_RATE)
+            return false
+        }
+    }
+}
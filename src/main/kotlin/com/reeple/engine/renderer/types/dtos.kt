@@ -12,6 +12,7 @@ class Meta {
 
 class RenderModelDto {
     var id: String? = null
+    var tenant: String? = null
     var images: Array<ImageDto>? = null
     var texts: Array<TextDto>? = null
     var shapes: Array<ShapeDto>? = null
@@ -23,6 +24,22 @@ class RenderModelDto {
     var hooks: HooksDto? = null
 }
 
+class SchedulerStatus(
+    val slots: Int,
+    val running: Int,
+    val queueDepth: Int,
+    val tasks: List<TaskStatus>
+)
+
+class TaskStatus(
+    val id: String,
+    val tenant: String?,
+    val priority: Int,
+    val state: String,
+    val waitTime: Long,
+    val runTime: Long?
+)
+
 class HooksDto {
     var updateHook: String? = null
     var errorHook: String? = null
@@ -1,8 +1,56 @@
 package com.reeple.engine.renderer.types
 
+import com.xuggle.xuggler.IAudioSamples
+import com.xuggle.xuggler.IPacket
+import com.xuggle.xuggler.IStreamCoder
 import java.awt.Graphics2D
+import java.awt.image.BufferedImage
+import java.util.concurrent.TimeUnit
 
 interface CanRender {
     fun render(g2d: Graphics2D)
-    fun render(ampData: ArrayList<FloatArray>, currentPoint: Int, g2d: Graphics2D)
-}
\ No newline at end of file
+    fun render(ampData: AmplitudeData, currentPoint: Int, g2d: Graphics2D)
+    fun skip(ampData: AmplitudeData, currentPoint: Int)
+}
+
+// per-frame band amplitudes of the audio track
+interface AmplitudeData {
+    val size: Int
+    val bands: Int
+    operator fun get(currentPoint: Int, band: Int): Float
+}
+
+// a composed frame converted into encoder input, only valid with the encoder that prepared it
+interface EncoderFrame
+
+// receives the soundtrack as decoded samples
+interface AudioOutput {
+    fun encodeAudio(samples: IAudioSamples)
+
+    fun close()
+}
+
+/**
+ * Writes the output video. Frames are prepared and encoded in two steps so conversion can run ahead of
+ * the encoder; audio arrives from its own thread.
+ */
+interface VideoEncoder : AudioOutput {
+    // converts [image], which may be drawn over once this returns; blocks while all input frames are in use
+    fun prepare(image: BufferedImage, timeStamp: Long, timeUnit: TimeUnit): EncoderFrame
+
+    // encodes a prepared frame and recycles it
+    fun encode(frame: EncoderFrame)
+}
+
+// an output that takes compressed packets read with Xuggler as they are
+interface PacketSink : AudioOutput {
+    // whether the upload's compressed audio packets are copied instead of encoded
+    val copiesAudio: Boolean
+
+    fun copyAudio(packet: IPacket)
+}
+
+// an output assembled from video packets encoded elsewhere, its video stream is set up from the first packet's [source]
+interface AssembledOutput : PacketSink {
+    fun copyVideo(packet: IPacket, source: IStreamCoder)
+}
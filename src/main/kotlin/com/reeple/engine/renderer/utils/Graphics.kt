@@ -1,42 +1,97 @@
 package com.reeple.engine.renderer.utils
 
+import com.reeple.engine.renderer.components.SpriteCache
+import com.reeple.engine.renderer.core.EngineConfig
 import com.reeple.engine.renderer.types.*
 import com.reeple.engine.renderer.types.Point
 import com.reeple.engine.renderer.utils.external.classes.ShadowFactory
+import com.reeple.engine.renderer.utils.external.classes.TextAlignment
 import com.reeple.engine.renderer.utils.external.classes.TextFormat
 import com.reeple.engine.renderer.utils.external.classes.TextRenderer
 import java.awt.*
 import java.awt.font.TextAttribute
 import java.awt.geom.AffineTransform
+import java.awt.geom.Ellipse2D
 import java.awt.geom.GeneralPath
 import java.awt.geom.RoundRectangle2D
 import java.awt.image.BufferedImage
+import java.awt.image.DataBufferInt
+import java.util.Arrays
+import kotlin.math.roundToInt
+
+// the filled shape and inner blur of the last glow on each render thread, reused while the size holds
+private class GlowScratch {
+    var shape: BufferedImage? = null
+    var inner: BufferedImage? = null
+}
+
+private val glowScratch = ThreadLocal.withInitial { GlowScratch() }
+
+// text layers laid out once per look, animations only move and fade them
+private val textSprites = SpriteCache<TextKey>(EngineConfig.textCacheMb)
+
+// bounds are laid out far from the origin so the renderer's int truncation rounds the same way as on the frame
+private const val TEXT_ORIGIN = 1 shl 14
+
+// circle glows by diameter bucket, scaled to the exact circle when drawn
+private val glowSprites = SpriteCache<GlowKey>(EngineConfig.glowCacheMb)
 
-private val factory1 = ShadowFactory(5, 1f, Color.white)
-private val factory2 = ShadowFactory(5, 1f, Color.white)
+private data class GlowKey(val diameter: Int, val color: Int, val size: Int, val opacity: Float)
 
+private data class TextKey(
+    val value: String, val font: String, val size: Int, val style: FontStyle?, val weight: FontWeight?,
+    val spacing: Double, val color: String?, val width: Int, val align: TextAlignment
+)
 
 fun drawText(layer: TextDto, g2d: Graphics2D) {
+    if (layer.opacity!! <= 0) return
+    val key = TextKey(
+        layer.value!!, layer.font!!, layer.fontSize!!, layer.fontStyle, layer.fontWeight,
+        layer.spacing!!, layer.color, layer.width!!, layer.align!!
+    )
+    val sprite = textSprites.get(key) { layoutText(key) }
+
+    val padding = key.size
+    var y = layer.posY!!.toInt() + sprite.y
+    // the renderer keeps the first line of middle and bottom aligned text inside the frame
+    if (key.align.isMiddle || key.align.isBottom) y = maxOf(0, y + padding) - padding
+
+    val composite = g2d.composite
+    g2d.composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, layer.opacity!! / 100f)
+    g2d.drawImage(sprite.image, layer.posX!!.toInt() + sprite.x, y, null)
+    g2d.composite = composite
+}
+
+// lays the text out twice, once to measure it and once into a sprite padded by the font size for overhangs
+private fun layoutText(key: TextKey): SpriteCache.Sprite {
     val attributes = HashMap<TextAttribute, Any>()
-    attributes[TextAttribute.POSTURE] = if (layer.fontStyle == FontStyle.ITALIC) TextAttribute.POSTURE_OBLIQUE else TextAttribute.POSTURE_REGULAR
-    attributes[TextAttribute.SIZE] = layer.fontSize!!
-    attributes[TextAttribute.TRACKING] = layer.spacing!!
+    attributes[TextAttribute.POSTURE] = if (key.style == FontStyle.ITALIC) TextAttribute.POSTURE_OBLIQUE else TextAttribute.POSTURE_REGULAR
+    attributes[TextAttribute.SIZE] = key.size
+    attributes[TextAttribute.TRACKING] = key.spacing
 
-    when (layer.fontWeight) {
+    when (key.weight) {
         FontWeight.BOLD -> attributes[TextAttribute.WEIGHT] = TextAttribute.WEIGHT_BOLD
         FontWeight.NORMAL -> attributes[TextAttribute.WEIGHT] = TextAttribute.WEIGHT_REGULAR
         FontWeight.THIN -> attributes[TextAttribute.WEIGHT] = TextAttribute.WEIGHT_LIGHT
     }
-    var color = Color.decode(layer.color)
-    TextRenderer.drawString(
-        g2d,
-        layer.value,
-        Font.decode(layer.font!!).deriveFont(attributes),
-        Color(color.red, color.green, color.blue, (255 * (layer.opacity!! / 100.0)).toInt()),
-        Rectangle(layer.posX!!.toInt(), layer.posY!!.toInt(), layer.width!!, 100),
-        layer.align,
-        TextFormat.FIRST_LINE_VISIBLE
-    )
+    val font = Font.decode(key.font).deriveFont(attributes)
+    val color = Color.decode(key.color)
+    val bounds = Rectangle(TEXT_ORIGIN, TEXT_ORIGIN, key.width, 100)
+
+    val measure = BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE)
+    val g2dMeasure = measure.createGraphics()
+    val consumed = TextRenderer.drawString(g2dMeasure, key.value, font, color, bounds, key.align, TextFormat.FIRST_LINE_VISIBLE)
+    g2dMeasure.dispose()
+
+    val padding = key.size
+    val sprite = BufferedImage(consumed.width + 2 * padding, consumed.height + 2 * padding, BufferedImage.TYPE_INT_ARGB_PRE)
+    val g2dSprite = sprite.createGraphics()
+    applyQualityRenderingHints(g2dSprite)
+    g2dSprite.translate(padding - consumed.x, padding - consumed.y)
+    TextRenderer.drawString(g2dSprite, key.value, font, color, bounds, key.align, TextFormat.FIRST_LINE_VISIBLE)
+    g2dSprite.dispose()
+
+    return SpriteCache.Sprite(sprite, consumed.x - padding - TEXT_ORIGIN, consumed.y - padding - TEXT_ORIGIN)
 }
 
 fun drawCurve(points: java.util.ArrayList<Point>, path: GeneralPath, inBend: Int, outBend: Int) {
@@ -165,6 +220,38 @@ fun fillGradient(g2d: Graphics2D, shape: Shape, fill1: Color, fill2: Color, fill
 
 fun generateGlow(shape: Shape, g2: Graphics2D, color: Color, size: Int, opacity: Float) {
 
+    val x = shape.bounds.x.toDouble()
+    val y = shape.bounds.y.toDouble()
+
+    val glowLayer = renderGlow(shape, color, size, opacity)
+    val deltaX = x - (glowLayer.width - shape.bounds.width) / 2.0
+    val deltaY = y - (glowLayer.height - shape.bounds.height) / 2.0
+
+    g2.drawImage(glowLayer, AffineTransform.getTranslateInstance(deltaX, deltaY), null)
+
+}
+
+/**
+ * Glow of a circle, blurred once per [EngineConfig.glowBucket] pixels of diameter and scaled to [circle]
+ * on every draw. Larger buckets trade the glow's edge accuracy for fewer blurs, 0 blurs every call.
+ */
+fun generateCircleGlow(circle: Ellipse2D, g2: Graphics2D, color: Color, size: Int, opacity: Float) {
+    val bucket = EngineConfig.glowBucket
+    if (bucket <= 0 || circle.width <= 0.0) return generateGlow(circle, g2, color, size, opacity)
+
+    val diameter = maxOf(1, (circle.width / bucket).roundToInt()) * bucket
+    val sprite = glowSprites.get(GlowKey(diameter, color.rgb, size, opacity)) {
+        SpriteCache.Sprite(renderGlow(Ellipse2D.Double(0.0, 0.0, diameter.toDouble(), diameter.toDouble()), color, size, opacity))
+    }
+
+    val scale = circle.width / diameter
+    val transform = AffineTransform.getTranslateInstance(circle.centerX, circle.centerY)
+    transform.scale(scale, scale)
+    transform.translate(-sprite.image.width / 2.0, -sprite.image.height / 2.0)
+    g2.drawImage(sprite.image, transform, null)
+}
+
+private fun renderGlow(shape: Shape, color: Color, size: Int, opacity: Float): BufferedImage {
 
     val x = shape.bounds.x.toDouble()
     val y = shape.bounds.y.toDouble()
@@ -172,26 +259,25 @@ fun generateGlow(shape: Shape, g2: Graphics2D, color: Color, size: Int, opacity:
     val shape2 = GeneralPath(shape)
     shape2.transform(AffineTransform.getTranslateInstance(-x, -y))
 
-    val buffer = BufferedImage(shape2.bounds.width, shape2.bounds.height, BufferedImage.TYPE_INT_ARGB)
+    val scratch = glowScratch.get()
+    var buffer = scratch.shape
+    if (buffer == null || buffer.width != shape2.bounds.width || buffer.height != shape2.bounds.height) {
+        buffer = BufferedImage(shape2.bounds.width, shape2.bounds.height, BufferedImage.TYPE_INT_ARGB)
+        scratch.shape = buffer
+    } else {
+        Arrays.fill((buffer.raster.dataBuffer as DataBufferInt).data, 0)
+    }
     val graphics2D = buffer.createGraphics()
 
     graphics2D.color = color
     graphics2D.stroke = BasicStroke(5f)
     graphics2D.fill(shape2)
+    graphics2D.dispose()
 
-    factory1.color = Color.white
-    factory1.opacity = opacity
-    factory1.size = size
-
-    factory2.color = color
-    factory2.size = size
-
-    val glowLayer =  factory2.createShadow( factory1.createShadow(buffer))
-    val deltaX = x - (glowLayer.width - shape.bounds.width) / 2.0
-    val deltaY = y - (glowLayer.height - shape.bounds.height) / 2.0
-
-    g2.drawImage(glowLayer, AffineTransform.getTranslateInstance(deltaX, deltaY), null)
-
+    // a white inner glow spread by an opaque one in the shape's color
+    val inner = ShadowFactory.createShadow(buffer, size, opacity, Color.white, scratch.inner)
+    scratch.inner = inner
+    return ShadowFactory.createShadow(inner, size, 1f, color, null)
 }
 
 fun renderTrackProgress(percent: Double, g2d: Graphics2D, meta: AudioTracker) {
@@ -1,6 +1,8 @@
 package com.reeple.engine.renderer.utils.external.classes;
 
 
+import com.reeple.engine.renderer.core.PicturePool;
+import com.xuggle.ferry.IBuffer;
 import com.xuggle.ferry.JNIMemoryManager;
 import com.xuggle.ferry.JNIMemoryManager.MemoryModel;
 import com.xuggle.mediatool.AMediaCoderMixin;
@@ -40,6 +42,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
     private Map<Integer, Integer> mOutputStreamIndices;
     private Map<Integer, IStream> mStreams;
     private Map<Integer, IConverter> mVideoConverters;
+    private Map<Integer, IBuffer> mCopiedStreams;
     private boolean mForceInterleave;
     private boolean mMaskLateStreamException;
 
@@ -57,6 +60,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         this.mOutputStreamIndices = new HashMap();
         this.mStreams = new HashMap();
         this.mVideoConverters = new HashMap();
+        this.mCopiedStreams = new HashMap();
         this.mOpenedStreams = new Vector();
         this.mForceInterleave = true;
         this.mMaskLateStreamException = false;
@@ -78,6 +82,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         this.mOutputStreamIndices = new HashMap();
         this.mStreams = new HashMap();
         this.mVideoConverters = new HashMap();
+        this.mCopiedStreams = new HashMap();
         this.mOpenedStreams = new Vector();
         this.mForceInterleave = true;
         this.mMaskLateStreamException = false;
@@ -166,6 +171,69 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         }
     }
 
+    /**
+     * Adds an audio or video stream that takes the compressed packets of {@code source} as they are, see
+     * {@link #copyPacket(int, IPacket)}. Nothing written to it passes through an encoder.
+     */
+    public synchronized int addStreamCopy(int inputIndex, int streamId, IStreamCoder source) {
+        if (null == source) {
+            throw new IllegalArgumentException("null source coder");
+        } else if (!this.isSupportedCodecType(source.getCodecType())) {
+            throw new IllegalArgumentException("cannot copy streams of type " + source.getCodecType());
+        } else {
+            ICodec codec = source.getCodec();
+            try {
+                IStream stream = this.establishStream(inputIndex, streamId, codec);
+                IStreamCoder coder = stream.getStreamCoder();
+                if (com.xuggle.xuggler.ICodec.Type.CODEC_TYPE_AUDIO == source.getCodecType()) {
+                    coder.setChannels(source.getChannels());
+                    coder.setSampleRate(source.getSampleRate());
+                    coder.setSampleFormat(source.getSampleFormat());
+                } else {
+                    coder.setWidth(source.getWidth());
+                    coder.setHeight(source.getHeight());
+                    coder.setPixelType(source.getPixelType());
+                    coder.setFrameRate(source.getFrameRate());
+                }
+                coder.setBitRate(source.getBitRate());
+                coder.setTimeBase(source.getTimeBase());
+
+                IBuffer extraData = null;
+                int extraDataSize = source.getExtraDataSize();
+                if (extraDataSize > 0) {
+                    extraData = IBuffer.make(null, extraDataSize);
+                    source.getExtraData(extraData, 0, 0, extraDataSize);
+                    coder.setExtraData(extraData, 0, extraDataSize, true);
+                }
+                this.addStream(stream, inputIndex, stream.getIndex());
+                this.mCopiedStreams.put(stream.getIndex(), extraData);
+                return stream.getIndex();
+            } finally {
+                codec.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes a packet read from the source of a stream added with {@link #addStreamCopy}. Timestamps
+     * stay in the packet's own time base, the container rescales them to the output stream's.
+     */
+    public synchronized void copyPacket(int streamIndex, IPacket packet) {
+        if (null == packet) {
+            throw new IllegalArgumentException("no packet");
+        } else {
+            IStream stream = this.getStream(streamIndex);
+            if (null != stream) {
+                if (!this.mCopiedStreams.containsKey(stream.getIndex())) {
+                    throw new IllegalArgumentException("stream[" + streamIndex + "] is not a copied stream");
+                }
+
+                packet.setStreamIndex(stream.getIndex());
+                this.writePacket(packet);
+            }
+        }
+    }
+
     public int addVideoStream(int inputIndex, int streamId, int width, int height) {
         return this.addVideoStream(inputIndex, streamId, (IRational) null, width, height);
     }
@@ -410,6 +478,24 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         }
     }
 
+    /**
+     * Sets an option on the coder of stream {@code streamIndex} before it is opened, returns a negative
+     * value when the coder does not know it.
+     */
+    public int setStreamProperty(int streamIndex, String name, String value) {
+        Integer outputIndex = this.getOutputStreamIndex(streamIndex);
+        if (null == outputIndex) {
+            throw new IllegalArgumentException("unknow stream index: " + streamIndex);
+        } else {
+            IStreamCoder coder = this.mStreams.get(outputIndex).getStreamCoder();
+            try {
+                return coder.setProperty(name, value);
+            } finally {
+                coder.delete();
+            }
+        }
+    }
+
     public void setMaskLateStreamExceptions(boolean maskLateStreamExceptions) {
         this.mMaskLateStreamException = maskLateStreamExceptions;
     }
@@ -465,11 +551,11 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         }
     }
 
-    public void encodeVideo(int streamIndex, IVideoPicture picture) {
+    public synchronized void encodeVideo(int streamIndex, IVideoPicture picture) {
         this.encodeVideo(streamIndex, picture, null);
     }
 
-    public void encodeVideo(int streamIndex, BufferedImage image, long timeStamp, TimeUnit timeUnit) {
+    public synchronized void encodeVideo(int streamIndex, BufferedImage image, long timeStamp, TimeUnit timeUnit) {
         if (null == image) {
             throw new IllegalArgumentException("NULL input image");
         } else if (null == timeUnit) {
@@ -492,7 +578,17 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         }
     }
 
-    public void encodeAudio(int streamIndex, IAudioSamples samples) {
+    public IVideoPicture toPicture(int streamIndex, BufferedImage image, long timeStamp, TimeUnit timeUnit) {
+        if (null == image) {
+            throw new IllegalArgumentException("NULL input image");
+        } else if (null == timeUnit) {
+            throw new IllegalArgumentException("NULL time unit");
+        } else {
+            return this.convertToPicture(streamIndex, image, TimeUnit.MICROSECONDS.convert(timeStamp, timeUnit));
+        }
+    }
+
+    public synchronized void encodeAudio(int streamIndex, IAudioSamples samples) {
         if (null == samples) {
             throw new IllegalArgumentException("NULL input samples");
         } else {
@@ -579,6 +675,27 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         this.encodeAudio(streamIndex, samples, Global.NO_PTS, null);
     }
 
+    /**
+     * Pictures in the size and format of video stream {@code streamIndex}, to be filled with
+     * {@link PicturePool#fill} and passed to {@link #encodeVideo(int, IVideoPicture)} instead of
+     * converting every frame into a new picture.
+     */
+    public PicturePool createPicturePool(int streamIndex, int capacity) {
+        Integer outputIndex = this.getOutputStreamIndex(streamIndex);
+        if (null == outputIndex) {
+            throw new IllegalArgumentException("unknow stream index: " + streamIndex);
+        } else {
+            IStreamCoder coder = this.mStreams.get(outputIndex).getStreamCoder();
+            if (com.xuggle.xuggler.ICodec.Type.CODEC_TYPE_VIDEO != coder.getCodecType()) {
+                throw new IllegalArgumentException("stream[" + streamIndex + "] is not video");
+            } else if (Type.YUV420P != coder.getPixelType()) {
+                throw new UnsupportedOperationException("cannot pool pictures of type " + coder.getPixelType());
+            } else {
+                return new PicturePool(coder.getWidth(), coder.getHeight(), capacity);
+            }
+        }
+    }
+
     private IVideoPicture convertToPicture(int streamIndex, BufferedImage image, long timeStamp) {
         IConverter videoConverter = this.mVideoConverters.get(streamIndex);
         if (videoConverter == null) {
@@ -629,6 +746,12 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
                 if (!stream.getStreamCoder().isOpen()) {
                     this.openStream(stream);
                 }
+
+                // opening a coder rewrites its global header, copied packets need the source's
+                IBuffer extraData = this.mCopiedStreams.get(stream.getIndex());
+                if (extraData != null) {
+                    stream.getStreamCoder().setExtraData(extraData, 0, extraData.getBufferSize(), true);
+                }
             }
 
             i = this.getContainer().writeHeader();
@@ -721,6 +844,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
 
         while (true) {
             while (true) {
+                IStream stream;
                 IStreamCoder coder;
                 do {
                     if (!i$.hasNext()) {
@@ -729,9 +853,10 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
                         return;
                     }
 
-                    IStream stream = (IStream) i$.next();
+                    stream = (IStream) i$.next();
                     coder = stream.getStreamCoder();
-                } while (!coder.isOpen());
+                    // copied streams never fed their coder, there is nothing to drain
+                } while (!coder.isOpen() || this.mCopiedStreams.containsKey(stream.getIndex()));
 
                 IPacket packet;
                 if (com.xuggle.xuggler.ICodec.Type.CODEC_TYPE_AUDIO == coder.getCodecType()) {
@@ -762,7 +887,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
         }
     }
 
-    public void close() {
+    public synchronized void close() {
         this.flush();
         int rv;
         if ((rv = this.getContainer().writeTrailer()) < 0) {
@@ -787,6 +912,7 @@ public class MediaWriterMod extends AMediaCoderMixin implements IMediaWriter {
             }
 
             this.mStreams.clear();
+            this.mCopiedStreams.clear();
             this.mOpenedStreams.clear();
             this.mVideoConverters.clear();
             if (this.getShouldCloseContainer()) {
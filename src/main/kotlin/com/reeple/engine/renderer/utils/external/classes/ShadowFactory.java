@@ -33,6 +33,7 @@ import java.awt.*;
 import java.awt.image.*;
 import java.beans.PropertyChangeListener;
 import java.beans.PropertyChangeSupport;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
@@ -163,6 +164,9 @@ public class ShadowFactory {
     // notifies listeners of properties changes
     private PropertyChangeSupport changeSupport;
 
+    // blur history of the fast algorithm, one per thread so static callers never share it
+    private static final ThreadLocal<int[]> HISTORY = ThreadLocal.withInitial(() -> new int[0]);
+
     /**
      * <p>Creates a default good looking shadow generator.
      * The default shadow factory provides the following default values:
@@ -404,25 +408,56 @@ public class ShadowFactory {
     // the kernel is simulated by an horizontal and a vertical pass
     // implemented by S�bastien Petrucci
     private BufferedImage createShadowFast(final BufferedImage src) {
-        int shadowSize = this.size;
+        return createShadow(src, size, opacity, color, null);
+    }
+
+    /**
+     * <p>Generates the shadow for a given picture with the fast algorithm and
+     * the given properties instead of the factory's. It changes no state, so
+     * render threads can call it concurrently.</p>
+     * <p><code>target</code> is reused when it is a <code>TYPE_INT_ARGB</code>
+     * picture of the shadow's dimensions, a new picture is created otherwise.
+     * Sources in <code>TYPE_INT_ARGB</code> are read straight from their
+     * pixel array.</p>
+     *
+     * @param src     the picture from which the shadow must be cast
+     * @param size    the size of the shadow in pixels
+     * @param opacity the opacity of the shadow, between 0.0 and 1.0
+     * @param color   the color of the shadow
+     * @param target  a picture the shadow may be written into, or null
+     * @return the picture containing the shadow of <code>src</code>
+     */
+    public static BufferedImage createShadow(final BufferedImage src, final int size, final float opacity,
+                                             final Color color, final BufferedImage target) {
+        int shadowSize = Math.max(0, size);
+        float shadowOpacity = Math.max(0.0f, Math.min(1.0f, opacity));
 
         int srcWidth = src.getWidth();
         int srcHeight = src.getHeight();
 
-        int dstWidth = srcWidth + size;
-        int dstHeight = srcHeight + size;
+        int dstWidth = srcWidth + shadowSize;
+        int dstHeight = srcHeight + shadowSize;
 
         int left = (shadowSize - 1) >> 1;
         int right = shadowSize - left;
 
         int yStop = dstHeight - right;
 
-        BufferedImage dst = new BufferedImage(dstWidth, dstHeight,
-                BufferedImage.TYPE_INT_ARGB);
+        BufferedImage dst = target;
+        boolean reused = dst != null && dst.getType() == BufferedImage.TYPE_INT_ARGB &&
+                dst.getWidth() == dstWidth && dst.getHeight() == dstHeight && dst.getRaster().getParent() == null;
+        if (!reused) {
+            dst = new BufferedImage(dstWidth, dstHeight,
+                    BufferedImage.TYPE_INT_ARGB);
+        }
 
         int shadowRgb = color.getRGB() & 0x00FFFFFF;
 
-        int[] aHistory = new int[shadowSize];
+        int[] aHistory = HISTORY.get();
+        if (aHistory.length < shadowSize) {
+            aHistory = new int[shadowSize];
+            HISTORY.set(aHistory);
+        }
         int historyIdx;
 
         int aSum;
@@ -431,9 +466,20 @@ public class ShadowFactory {
         WritableRaster srcRaster = src.getRaster();
         int[] dstBuffer = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
 
+        // the horizontal pass leaves the rows above and below the source untouched
+        if (reused) {
+            Arrays.fill(dstBuffer, 0, left * dstWidth, 0);
+            Arrays.fill(dstBuffer, (left + srcHeight) * dstWidth, dstBuffer.length, 0);
+        }
+
+        // alpha is read from the pixel array when there is one, through a reused element otherwise
+        int[] srcPixels = src.getType() == BufferedImage.TYPE_INT_ARGB && srcRaster.getParent() == null ?
+                ((DataBufferInt) srcRaster.getDataBuffer()).getData() : null;
+        Object srcElement = null;
+
         int lastPixelOffset = right * dstWidth;
-        float hSumDivider = 1.0f / size;
-        float vSumDivider = opacity / size;
+        float hSumDivider = 1.0f / shadowSize;
+        float vSumDivider = shadowOpacity / shadowSize;
 
         // horizontal pass : extract the alpha mask from the source picture and
         // blur it into the destination picture
@@ -457,7 +503,12 @@ public class ShadowFactory {
                 aSum -= aHistory[historyIdx]; // substract the oldest pixel from the sum
 
                 // extract the new pixel ...
-                a = srcColorModel.getAlpha(srcRaster.getDataElements(srcX, srcY, null));
+                if (srcPixels != null) {
+                    a = srcPixels[srcY * srcWidth + srcX] >>> 24;
+                } else {
+                    srcElement = srcRaster.getDataElements(srcX, srcY, srcElement);
+                    a = srcColorModel.getAlpha(srcElement);
+                }
                 aHistory[historyIdx] = a;   // ... and store its value into history
                 aSum += a;                  // ... and add its value to the sum
 
@@ -0,0 +1,54 @@
+package com.reeple.engine
+
+import com.reeple.engine.renderer.components.AudioConverter
+import com.reeple.engine.renderer.components.AudioMuxer
+import com.reeple.engine.renderer.utils.external.classes.MediaWriterMod
+import com.xuggle.xuggler.ICodec
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.concurrent.TimeUnit
+import kotlin.math.PI
+import kotlin.math.sin
+
+class AudioMuxerTests {
+
+	@TempDir
+	lateinit var directory: File
+
+	@Test
+	fun adtsUploadIsEncodedAgain() {
+		// what FileManager.saveResource stores for a raw .aac upload
+		val upload = writeAac(File(directory, "audio.aac"))
+		var copied = false
+		assertFalse(AudioMuxer.copySource(upload.path) { copied = true })
+		assertFalse(copied)
+	}
+
+	@Test
+	fun m4aUploadIsCopied() {
+		val upload = writeAac(File(directory, "audio.m4a"))
+		var copied = false
+		assertTrue(AudioMuxer.copySource(upload.path) { copied = it.extraDataSize > 0 })
+		assertTrue(copied)
+	}
+
+	// two seconds of a 440 Hz tone at the output rate
+	private fun writeAac(file: File): File {
+		val writer = MediaWriterMod(file.path)
+		writer.addAudioStream(0, 0, ICodec.ID.CODEC_ID_AAC, AudioConverter.CHANNELS, AudioConverter.SAMPLE_RATE)
+		val block = 1024
+		for (start in 0 until AudioConverter.SAMPLE_RATE * 2 step block) {
+			val samples = ShortArray(block * AudioConverter.CHANNELS) {
+				val sample = start + it / AudioConverter.CHANNELS
+				(sin(2 * PI * 440 * sample / AudioConverter.SAMPLE_RATE) * 8000).toInt().toShort()
+			}
+			val timeStamp = start * 1000000L / AudioConverter.SAMPLE_RATE
+			writer.encodeAudio(0, samples, timeStamp, TimeUnit.MICROSECONDS)
+		}
+		writer.close()
+		return file
+	}
+}
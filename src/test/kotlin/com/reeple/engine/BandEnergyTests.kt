@@ -0,0 +1,70 @@
+package com.reeple.engine
+
+import com.reeple.engine.renderer.components.AudioAnalyzer
+import com.reeple.engine.renderer.components.BandEnergy
+import com.reeple.engine.renderer.utils.external.analysis.FFT
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import java.util.Random
+
+class BandEnergyTests {
+
+	private val sampleRate = 44100f
+
+	@Test
+	fun matchesCalcAvgOnTransformedBlocks() {
+		val fft = FFT(AudioAnalyzer.FFT_SIZE, sampleRate)
+		val kernel = BandEnergy(fft, AudioAnalyzer.BAND_EDGES, AudioAnalyzer.BAND_GAINS)
+		val random = Random(7)
+
+		repeat(50) {
+			fft.forward(FloatArray(AudioAnalyzer.FFT_SIZE) { (random.nextGaussian() * 0.3).toFloat() })
+			assertBitIdentical(fft, kernel, AudioAnalyzer.BAND_EDGES, AudioAnalyzer.BAND_GAINS)
+		}
+	}
+
+	@Test
+	fun matchesCalcAvgOnRandomSpectra() {
+		val fft = FFT(AudioAnalyzer.FFT_SIZE, sampleRate)
+		val kernel = BandEnergy(fft, AudioAnalyzer.BAND_EDGES, AudioAnalyzer.BAND_GAINS)
+		val random = Random(11)
+
+		repeat(50) {
+			val spectrum = fft.spectrum
+			for (i in spectrum.indices) spectrum[i] = random.nextFloat() * 1000f
+			assertBitIdentical(fft, kernel, AudioAnalyzer.BAND_EDGES, AudioAnalyzer.BAND_GAINS)
+		}
+	}
+
+	@Test
+	fun matchesCalcAvgOnEdgeCases() {
+		val fft = FFT(AudioAnalyzer.FFT_SIZE, sampleRate)
+		// a band narrower than one bin, a band reaching past the last bin and one ending at Nyquist
+		val edges = floatArrayOf(0f, 1f, 21f, 1000f, 21990f, 22050f, 30000f)
+		val gains = floatArrayOf(1f, 2f, 3f, 4f, 5f, 6f)
+		val kernel = BandEnergy(fft, edges, gains)
+		val random = Random(13)
+
+		// silence takes the log of zero
+		fft.spectrum.fill(0f)
+		assertBitIdentical(fft, kernel, edges, gains)
+
+		// energy only in the Nyquist bin
+		fft.spectrum[fft.spectrum.size - 1] = 250f
+		assertBitIdentical(fft, kernel, edges, gains)
+
+		repeat(20) {
+			val spectrum = fft.spectrum
+			for (i in spectrum.indices) spectrum[i] = if (random.nextInt(4) == 0) 0f else random.nextFloat() * 50f
+			assertBitIdentical(fft, kernel, edges, gains)
+		}
+	}
+
+	private fun assertBitIdentical(fft: FFT, kernel: BandEnergy, edges: FloatArray, gains: FloatArray) {
+		val output = kernel.compute(fft.spectrum)
+		for (band in 0 until kernel.bands) {
+			val expected = gains[band] * Math.log(fft.calcAvg(edges[band], edges[band + 1]) * 1.0).toFloat() * 3
+			assertEquals(expected.toRawBits(), output[band].toRawBits(), "band $band: expected $expected, got ${output[band]}")
+		}
+	}
+}
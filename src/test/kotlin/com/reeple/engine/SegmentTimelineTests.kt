@@ -0,0 +1,56 @@
+package com.reeple.engine
+
+import com.reeple.engine.renderer.core.SegmentTimeline
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class SegmentTimelineTests {
+
+	private val fps = 25.0
+	private val segmentFrames = 8
+	private val timeBase = 1.0 / 12800
+	private val tick = 512L
+
+	@Test
+	fun concatenatesBFrameSegments() {
+		val timeline = SegmentTimeline(fps, segmentFrames)
+		val output = ArrayList<Packet>()
+		repeat(2) { segment -> output += copy(timeline, segment, bFrameSegment()) }
+
+		assertTrue(output.first().dts >= 0, "first dts ${output.first().dts}")
+		for (i in 1 until output.size) assertTrue(output[i].dts > output[i - 1].dts, "dts not increasing at packet $i")
+		output.forEach { assertTrue(it.pts >= it.dts, "pts ${it.pts} before dts ${it.dts}") }
+
+		// every frame is presented once, one frame apart and in order across the boundary
+		val presented = output.map { it.pts }.sorted()
+		for (i in 1 until presented.size) assertEquals(tick, presented[i] - presented[i - 1])
+	}
+
+	@Test
+	fun keepsIntraSegmentsAtTheirStart() {
+		val timeline = SegmentTimeline(fps, segmentFrames)
+		val frames = List(segmentFrames) { Packet((it + 1) * tick, (it + 1) * tick) }
+		repeat(3) { segment ->
+			val copied = copy(timeline, segment, frames)
+			assertEquals((segment * segmentFrames + 1) * tick, copied.first().pts)
+		}
+	}
+
+	private fun copy(timeline: SegmentTimeline, segment: Int, packets: List<Packet>): List<Packet> {
+		val offset = timeline.offset(segment, timeBase, packets.first().dts)
+		return packets.map {
+			val copied = Packet(it.pts + offset, it.dts + offset)
+			timeline.written(copied.dts, tick, timeBase)
+			copied
+		}
+	}
+
+	// eight frames stamped from the first frame on, coded as I P B B P B B P with decoding two frames ahead
+	private fun bFrameSegment(): List<Packet> {
+		val order = intArrayOf(0, 3, 1, 2, 6, 4, 5, 7)
+		return order.mapIndexed { decoded, frame -> Packet((frame + 1) * tick, (decoded - 1) * tick) }
+	}
+
+	private class Packet(val pts: Long, val dts: Long)
+}
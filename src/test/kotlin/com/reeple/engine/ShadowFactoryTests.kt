@@ -0,0 +1,141 @@
+package com.reeple.engine
+
+import com.reeple.engine.renderer.utils.external.classes.ShadowFactory
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertNotSame
+import org.junit.jupiter.api.Assertions.assertSame
+import org.junit.jupiter.api.Test
+import java.awt.Color
+import java.awt.geom.Ellipse2D
+import java.awt.image.BufferedImage
+import java.awt.image.DataBufferInt
+
+class ShadowFactoryTests {
+
+	private val sizes = intArrayOf(1, 2, 5, 12, 37)
+	private val color = Color(40, 120, 220)
+
+	@Test
+	fun staticShadowMatchesReference() {
+		for (source in sources()) {
+			for (size in sizes) {
+				val expected = referenceShadow(source, size, 0.6f, color)
+				assertPixels(expected, ShadowFactory.createShadow(source, size, 0.6f, color, null))
+				assertPixels(expected, ShadowFactory(size, 0.6f, color).createShadow(source))
+			}
+		}
+	}
+
+	@Test
+	fun reusedTargetMatchesFreshShadow() {
+		for (source in sources()) {
+			for (size in sizes) {
+				val fresh = ShadowFactory.createShadow(source, size, 0.6f, color, null)
+
+				// leftovers of an earlier shadow in every pixel must not survive
+				val target = BufferedImage(fresh.width, fresh.height, BufferedImage.TYPE_INT_ARGB)
+				(target.raster.dataBuffer as DataBufferInt).data.fill(-1)
+				val reused = ShadowFactory.createShadow(source, size, 0.6f, color, target)
+				assertSame(target, reused)
+				assertPixels(fresh, reused)
+
+				val resized = BufferedImage(fresh.width + 1, fresh.height, BufferedImage.TYPE_INT_ARGB)
+				val replaced = ShadowFactory.createShadow(source, size, 0.6f, color, resized)
+				assertNotSame(resized, replaced)
+				assertPixels(fresh, replaced)
+			}
+		}
+	}
+
+	// an INT_ARGB source read from its pixel array, one read through its raster and a sub-image of the first
+	private fun sources(): List<BufferedImage> {
+		val argb = shape(BufferedImage.TYPE_INT_ARGB, 61, 47)
+		return listOf(argb, shape(BufferedImage.TYPE_4BYTE_ABGR, 61, 47), argb.getSubimage(3, 2, 50, 40))
+	}
+
+	private fun shape(type: Int, width: Int, height: Int): BufferedImage {
+		val image = BufferedImage(width, height, type)
+		val g2d = image.createGraphics()
+		g2d.color = Color(255, 0, 0, 200)
+		g2d.fill(Ellipse2D.Double(4.0, 3.0, width - 9.0, height - 7.0))
+		g2d.dispose()
+		return image
+	}
+
+	private fun assertPixels(expected: BufferedImage, actual: BufferedImage) {
+		assertArrayEquals(
+			expected.getRGB(0, 0, expected.width, expected.height, null, 0, expected.width),
+			actual.getRGB(0, 0, actual.width, actual.height, null, 0, actual.width)
+		)
+	}
+
+	// the fast algorithm as ShadowFactory implemented it before the static entry point, read pixel by pixel
+	private fun referenceShadow(src: BufferedImage, size: Int, opacity: Float, color: Color): BufferedImage {
+		val srcWidth = src.width
+		val srcHeight = src.height
+		val dstWidth = srcWidth + size
+		val dstHeight = srcHeight + size
+		val left = (size - 1) shr 1
+		val right = size - left
+		val yStop = dstHeight - right
+
+		val dst = BufferedImage(dstWidth, dstHeight, BufferedImage.TYPE_INT_ARGB)
+		val shadowRgb = color.rgb and 0x00FFFFFF
+		val aHistory = IntArray(size)
+		val dstBuffer = (dst.raster.dataBuffer as DataBufferInt).data
+		val lastPixelOffset = right * dstWidth
+		val hSumDivider = 1.0f / size
+		val vSumDivider = opacity / size
+
+		var dstOffset = left * dstWidth
+		for (srcY in 0 until srcHeight) {
+			aHistory.fill(0)
+			var aSum = 0
+			var historyIdx = 0
+			for (srcX in 0 until srcWidth) {
+				dstBuffer[dstOffset++] = (aSum * hSumDivider).toInt() shl 24
+				aSum -= aHistory[historyIdx]
+				val a = src.colorModel.getAlpha(src.raster.getDataElements(srcX, srcY, null))
+				aHistory[historyIdx] = a
+				aSum += a
+				if (++historyIdx >= size) historyIdx -= size
+			}
+			repeat(size) {
+				dstBuffer[dstOffset++] = (aSum * hSumDivider).toInt() shl 24
+				aSum -= aHistory[historyIdx]
+				if (++historyIdx >= size) historyIdx -= size
+			}
+		}
+
+		for (x in 0 until dstWidth) {
+			var aSum = 0
+			var historyIdx = 0
+			while (historyIdx < left) aHistory[historyIdx++] = 0
+			var bufferOffset = x
+			for (y in 0 until right) {
+				val a = dstBuffer[bufferOffset] ushr 24
+				aHistory[historyIdx++] = a
+				aSum += a
+				bufferOffset += dstWidth
+			}
+			bufferOffset = x
+			historyIdx = 0
+			for (y in 0 until yStop) {
+				dstBuffer[bufferOffset] = ((aSum * vSumDivider).toInt() shl 24) or shadowRgb
+				aSum -= aHistory[historyIdx]
+				val a = dstBuffer[bufferOffset + lastPixelOffset] ushr 24
+				aHistory[historyIdx] = a
+				aSum += a
+				if (++historyIdx >= size) historyIdx -= size
+				bufferOffset += dstWidth
+			}
+			for (y in yStop until dstHeight) {
+				dstBuffer[bufferOffset] = ((aSum * vSumDivider).toInt() shl 24) or shadowRgb
+				aSum -= aHistory[historyIdx]
+				if (++historyIdx >= size) historyIdx -= size
+				bufferOffset += dstWidth
+			}
+		}
+		return dst
+	}
+}
@@ -0,0 +1,85 @@
+package com.reeple.engine.benchmarks;
+
+import com.reeple.engine.renderer.components.AudioAnalyzer;
+import com.reeple.engine.renderer.components.BandEnergy;
+import com.reeple.engine.renderer.utils.external.analysis.FFT;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-block band analysis through six {@code calcAvg} calls with the {@link BandEnergy}
+ * kernel, with and without the forward transform in front of it.
+ * Run with {@code mvn test-compile} and the main method on the test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BandEnergyBenchmark {
+
+    private final float[] edges = AudioAnalyzer.BAND_EDGES;
+    private final float[] gains = AudioAnalyzer.BAND_GAINS;
+
+    private FFT fft;
+    private BandEnergy kernel;
+    private float[] samples;
+    private float[] block;
+    private float[] output;
+
+    @Setup
+    public void setup() {
+        fft = new FFT(AudioAnalyzer.FFT_SIZE, 44100f);
+        kernel = new BandEnergy(fft, edges, gains);
+        samples = new float[AudioAnalyzer.FFT_SIZE];
+        block = new float[AudioAnalyzer.FFT_SIZE];
+        output = new float[AudioAnalyzer.BANDS];
+
+        Random random = new Random(42);
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (Math.sin(i * 0.05) * 0.5 + random.nextGaussian() * 0.1);
+        }
+        fft.forward(samples.clone());
+    }
+
+    @Benchmark
+    public float[] calcAvg() {
+        for (int band = 0; band < output.length; band++) {
+            output[band] = gains[band] * (float) Math.log(fft.calcAvg(edges[band], edges[band + 1]) * 1.0) * 3;
+        }
+        return output;
+    }
+
+    @Benchmark
+    public float[] kernel() {
+        return kernel.compute(fft.getSpectrum());
+    }
+
+    @Benchmark
+    public float[] forwardCalcAvg() {
+        System.arraycopy(samples, 0, block, 0, samples.length);
+        fft.forward(block);
+        return calcAvg();
+    }
+
+    @Benchmark
+    public float[] forwardKernel() {
+        System.arraycopy(samples, 0, block, 0, samples.length);
+        fft.forward(block);
+        return kernel.compute(fft.getSpectrum());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(BandEnergyBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}